@@ -0,0 +1,14 @@
+@echo off
+rem Starts the injector, using the AppCDS archive built by "ant cds-archive" when
+rem one sits next to the jar. Runtimes that do not support it (or were not the
+rem runtime that created it) silently fall back to a normal start.
+
+set DIR=%~dp0
+set JAVA=java
+if defined JAVA_HOME set JAVA=%JAVA_HOME%\bin\java
+
+if exist "%DIR%InjectModuleInfo.jsa" (
+    "%JAVA%" -XX:+IgnoreUnrecognizedVMOptions -Xshare:auto -XX:SharedArchiveFile="%DIR%InjectModuleInfo.jsa" -jar "%DIR%InjectModuleInfo.jar" %*
+) else (
+    "%JAVA%" -jar "%DIR%InjectModuleInfo.jar" %*
+)
@@ -0,0 +1,15 @@
+#!/bin/sh
+# Starts the injector, using the AppCDS archive built by "ant cds-archive" when
+# one sits next to the jar. Runtimes that do not support it (or were not the
+# runtime that created it) silently fall back to a normal start.
+
+DIR=$(cd "$(dirname "$0")" && pwd)
+JAVA=${JAVA_HOME:+$JAVA_HOME/bin/}java
+JAR="$DIR/InjectModuleInfo.jar"
+JSA="$DIR/InjectModuleInfo.jsa"
+
+if [ -f "$JSA" ]; then
+    exec "$JAVA" -XX:+IgnoreUnrecognizedVMOptions -Xshare:auto -XX:SharedArchiveFile="$JSA" -jar "$JAR" "$@"
+fi
+
+exec "$JAVA" -jar "$JAR" "$@"
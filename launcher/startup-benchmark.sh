@@ -0,0 +1,52 @@
+#!/bin/sh
+# Compares cold start of the injector with and without the AppCDS archive.
+# Each run starts the JVM with the startup probe (see ModuleInfoForm), which
+# loads the usual startup classes and exits, so the time measured is the time
+# to first useful work.
+#
+# usage: startup-benchmark.sh <jar> <jsa> [runs] [java]
+
+JAR=$1
+JSA=$2
+RUNS=${3:-10}
+JAVA=${4:-${JAVA_HOME:+$JAVA_HOME/bin/}java}
+PROBE=-Dinjectmoduleinfo.startupProbe=true
+
+if [ ! -f "$JAR" ] || [ ! -f "$JSA" ]; then
+    echo "usage: $0 <jar> <jsa> [runs] [java]" >&2
+    exit 1
+fi
+
+# date +%N is a GNU extension; BSD and macOS date print a literal N, so fall
+# back to perl there (shipped with both)
+now_ms() {
+    ns=$(date +%s%N)
+    case $ns in
+        *N) perl -MTime::HiRes=time -e 'printf "%d\n", time * 1000' ;;
+        *) echo $((ns / 1000000)) ;;
+    esac
+}
+
+# prints mean and best wall time in ms for the given JVM options
+measure() {
+    total=0
+    best=0
+    i=0
+    # one untimed run to settle the file cache
+    "$JAVA" "$@" $PROBE -jar "$JAR" > /dev/null 2>&1
+    while [ $i -lt "$RUNS" ]; do
+        start=$(now_ms)
+        "$JAVA" "$@" $PROBE -jar "$JAR" > /dev/null 2>&1 || { echo "run failed: $*" >&2; exit 1; }
+        elapsed=$(($(now_ms) - start))
+        total=$((total + elapsed))
+        if [ $best -eq 0 ] || [ $elapsed -lt $best ]; then
+            best=$elapsed
+        fi
+        i=$((i + 1))
+    done
+    echo "mean $((total / RUNS)) ms, best $best ms"
+}
+
+echo "Startup over $RUNS runs ($("$JAVA" -version 2>&1 | head -n 1))"
+echo "  without AppCDS: $(measure -Xshare:auto)"
+echo "  with AppCDS:    $(measure -Xshare:auto -XX:SharedArchiveFile="$JSA")"
@@ -0,0 +1,135 @@
+/*******************************************************
+ * Copyright 2019 Draque Thompson
+ *
+ *  Module Injector is a module injection tool used for
+ *  modularizing jar files. This allows them to be
+ *  build into runnable images via jlink.
+ *
+ *  No guarantees about anything. Use with caution.
+ *  This thing is very much a hack, and I hope that all
+ *  dependencies will be made modular so that no one
+ *  has to ever use it again..
+ *
+ *******************************************************/
+
+package injectmoduleinfo;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Checks a rewritten jar against the jar it was written from. Every entry in
+ * the original's central directory must have been written or deliberately
+ * dropped. Copied entries are compared by the CRC-32 and size recorded in
+ * both central directories, so nothing is decompressed for them; only added
+ * and rewritten entries are read in full and checked against their own
+ * recorded CRC.
+ *
+ * @author draque
+ */
+public final class ArchiveVerifier {
+
+    private static final int maxReported = 20;
+
+    private ArchiveVerifier() {
+    }
+
+    /**
+     * @param original jar the output was written from
+     * @param output output jar
+     * @param written as returned by ArchiveWriter.write()
+     * @throws IOException listing the problems found, if any
+     */
+    public static void verify(File original, File output, ArchiveWriter.Written written) throws IOException {
+        List<String> problems = new ArrayList<>();
+        Map<String, String> origins = written.getOrigins();
+
+        try (ZipFile source = new ZipFile(original);
+                ZipFile dest = new ZipFile(output)) {
+            Set<String> seen = new HashSet<>();
+            Set<String> sourcesWritten = new HashSet<>(origins.values());
+
+            for (Enumeration<? extends ZipEntry> e = source.entries(); e.hasMoreElements();) {
+                String name = e.nextElement().getName();
+
+                if (!sourcesWritten.contains(name) && !written.getDropped().contains(name)) {
+                    problems.add("Lost entry: " + name);
+                }
+            }
+
+            for (Enumeration<? extends ZipEntry> e = dest.entries(); e.hasMoreElements();) {
+                String name = e.nextElement().getName();
+
+                if (!seen.add(name)) {
+                    problems.add("Duplicate entry: " + name);
+                } else if (!origins.containsKey(name)) {
+                    problems.add("Unexpected entry: " + name);
+                }
+            }
+
+            byte[] buffer = new byte[8192];
+
+            for (Map.Entry<String, String> origin : origins.entrySet()) {
+                String name = origin.getKey();
+
+                if (!seen.contains(name)) {
+                    problems.add("Missing entry: " + name);
+                    continue;
+                }
+
+                ZipEntry out = dest.getEntry(name);
+
+                if (origin.getValue() != null && !written.getRewritten().contains(name)) {
+                    ZipEntry in = source.getEntry(origin.getValue());
+
+                    if (in == null || in.getCrc() != out.getCrc() || in.getSize() != out.getSize()) {
+                        problems.add("Contents differ from original: " + name);
+                    }
+                } else if (!isIntact(dest, out, buffer)) {
+                    problems.add("CRC mismatch: " + name);
+                }
+            }
+        }
+
+        if (!problems.isEmpty()) {
+            String message = output.getName() + " failed verification:\n";
+
+            for (String problem : problems.subList(0, Math.min(problems.size(), maxReported))) {
+                message += problem + "\n";
+            }
+            if (problems.size() > maxReported) {
+                message += "...and " + (problems.size() - maxReported) + " more\n";
+            }
+
+            throw new IOException(message);
+        }
+    }
+
+    /**
+     * @return whether the entry's data matches the size and CRC recorded for it
+     */
+    private static boolean isIntact(ZipFile zip, ZipEntry entry, byte[] buffer) throws IOException {
+        CRC32 crc = new CRC32();
+        long size = 0;
+
+        try (InputStream in = zip.getInputStream(entry)) {
+            int len;
+            while ((len = in.read(buffer)) > 0) {
+                crc.update(buffer, 0, len);
+                size += len;
+            }
+        }
+
+        return crc.getValue() == entry.getCrc() && size == entry.getSize();
+    }
+}
@@ -0,0 +1,396 @@
+/*******************************************************
+ * Copyright 2019 Draque Thompson
+ *
+ *  Module Injector is a module injection tool used for
+ *  modularizing jar files. This allows them to be
+ *  build into runnable images via jlink.
+ *
+ *  No guarantees about anything. Use with caution.
+ *  This thing is very much a hack, and I hope that all
+ *  dependencies will be made modular so that no one
+ *  has to ever use it again..
+ *
+ *******************************************************/
+
+package injectmoduleinfo;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Enumeration;
+import java.util.GregorianCalendar;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Rewrites a jar with extra entries added, copying the original entries
+ * straight across with their compression method, extra fields, comments and
+ * times intact. Identical inputs always give identical bytes out.
+ *
+ * Any EntryTransformer stages are applied in the same pass, so filtering,
+ * renaming and rewriting entries never costs another read of the jar.
+ *
+ * In reproducible mode entries are additionally put into canonical order and
+ * all timestamps are pinned, so jars that differ only in entry order or build
+ * time come out the same.
+ *
+ * @author draque
+ */
+public final class ArchiveWriter {
+
+    private static final String metaInf = "META-INF/";
+    private static final String manifest = "META-INF/MANIFEST.MF";
+    // extra field headers that carry timestamps (extended timestamp, NTFS, Info-ZIP unix)
+    private static final int[] timeExtraIds = {0x5455, 0x000A, 0x5855, 0x7855};
+    // same fixed time Gradle uses for reproducible archives, local so the stored DOS time is identical everywhere
+    private static final long fixedTime = new GregorianCalendar(1980, Calendar.FEBRUARY, 1).getTimeInMillis();
+
+    private ArchiveWriter() {
+    }
+
+    /**
+     * Writes source to dest, replacing/adding the given entries and running
+     * every original entry through the transformation stages on the way.
+     * Entries that would end up under the same name are an error.
+     *
+     * @param source original jar
+     * @param dest jar to write (overwritten)
+     * @param added entry name -> file whose contents to store under that name
+     * @param stages transformations, applied in order
+     * @param reproducible whether to canonicalize entry order and timestamps
+     * @return what went where, for ArchiveVerifier
+     * @throws IOException
+     */
+    public static Written write(File source, File dest, Map<String, File> added, List<EntryTransformer> stages, boolean reproducible) throws IOException {
+        try (ZipFile zip = new ZipFile(source);
+                ZipOutputStream out = new ZipOutputStream(new FileOutputStream(dest))) {
+            // final entry name -> what to write there, in output order
+            Map<String, PlannedEntry> plan = new LinkedHashMap<>();
+            Written ret = new Written();
+            long newest = -1;
+
+            for (Enumeration<? extends ZipEntry> e = zip.entries(); e.hasMoreElements();) {
+                ZipEntry entry = e.nextElement();
+
+                newest = Math.max(newest, entry.getTime());
+                if (added.containsKey(entry.getName())) {
+                    ret.dropped.add(entry.getName());
+                } else if (!plan(plan, new PlannedEntry(entry, null, null), entry.getName(), stages)) {
+                    ret.dropped.add(entry.getName());
+                }
+            }
+
+            // added entries are the injector's own output, so no stage may drop or rename them
+            for (Map.Entry<String, File> entry : added.entrySet()) {
+                PlannedEntry planned = new PlannedEntry(null, entry.getValue(), null);
+                planned.name = entry.getKey();
+                put(plan, planned);
+            }
+
+            for (EntryTransformer stage : stages) {
+                for (Map.Entry<String, byte[]> entry : stage.addEntries(plan.keySet()).entrySet()) {
+                    PlannedEntry planned = new PlannedEntry(null, null, entry.getValue());
+                    planned.name = entry.getKey();
+                    put(plan, planned);
+                }
+            }
+
+            // added entries take the newest time already in the jar, so they depend only on the input
+            long addedTime = reproducible || newest == -1 ? fixedTime : newest;
+            List<PlannedEntry> entries = new ArrayList<>(plan.values());
+
+            if (reproducible) {
+                Collections.sort(entries, canonicalOrder);
+            } else {
+                manifestFirst(entries);
+            }
+
+            byte[] buffer = new byte[8192];
+
+            for (PlannedEntry planned : entries) {
+                ret.origins.put(planned.name, planned.source == null ? null : planned.source.getName());
+                if (!planned.rewriters.isEmpty()) {
+                    ret.rewritten.add(planned.name);
+                }
+
+                if (planned.rewriters.isEmpty() && planned.data == null) {
+                    // untouched entries are streamed straight across
+                    out.putNextEntry(outEntry(planned, addedTime, reproducible, null));
+                    try (InputStream in = planned.open(zip)) {
+                        copy(in, out, buffer);
+                    }
+                } else {
+                    byte[] content = planned.data;
+
+                    if (content == null) {
+                        try (InputStream in = planned.open(zip)) {
+                            content = readAll(in, buffer);
+                        }
+                    }
+
+                    for (int i = 0; i < planned.rewriters.size(); i++) {
+                        content = planned.rewriters.get(i).rewrite(planned.rewriteNames.get(i), content);
+                    }
+
+                    out.putNextEntry(outEntry(planned, addedTime, reproducible, content));
+                    out.write(content);
+                }
+
+                out.closeEntry();
+            }
+
+            return ret;
+        }
+    }
+
+    /**
+     * Runs name through keep()/rename() of every stage, noting which stages
+     * want to rewrite the contents, and adds it to the plan unless dropped
+     *
+     * @return false if a stage dropped the entry
+     */
+    private static boolean plan(Map<String, PlannedEntry> plan, PlannedEntry planned, String name, List<EntryTransformer> stages) throws IOException {
+        String current = name;
+
+        for (EntryTransformer stage : stages) {
+            if (!stage.keep(current)) {
+                return false;
+            }
+
+            current = stage.rename(current);
+            if (stage.rewrites(current)) {
+                planned.rewriters.add(stage);
+                planned.rewriteNames.add(current);
+            }
+        }
+
+        planned.name = current;
+        put(plan, planned);
+        return true;
+    }
+
+    /**
+     * Adds an entry to the plan, refusing to let it replace another
+     */
+    private static void put(Map<String, PlannedEntry> plan, PlannedEntry planned) throws IOException {
+        PlannedEntry existing = plan.get(planned.name);
+
+        if (existing != null) {
+            throw new IOException("Duplicate entry " + planned.name + " (from " + existing.describe() + " and " + planned.describe() + ")");
+        }
+
+        plan.put(planned.name, planned);
+    }
+
+    /**
+     * JarInputStream only finds a manifest at the start of the jar, so one
+     * added by a stage is moved there (after META-INF/ if that comes first)
+     */
+    private static void manifestFirst(List<PlannedEntry> entries) {
+        for (int i = 0; i < entries.size(); i++) {
+            PlannedEntry planned = entries.get(i);
+
+            if (planned.name.equals(manifest) && planned.source == null) {
+                entries.remove(i);
+                entries.add(!entries.isEmpty() && entries.get(0).name.equals(metaInf) ? 1 : 0, planned);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Builds the output entry. Data is recompressed, so the compressed size
+     * is left for the stream to fill in.
+     *
+     * @param content rewritten contents, null if unchanged
+     */
+    private static ZipEntry outEntry(PlannedEntry planned, long addedTime, boolean reproducible, byte[] content) {
+        ZipEntry ret = new ZipEntry(planned.name);
+        ZipEntry entry = planned.source;
+
+        if (entry == null) {
+            ret.setTime(addedTime);
+            return ret;
+        }
+
+        ret.setMethod(entry.getMethod());
+        ret.setComment(entry.getComment());
+
+        if (reproducible) {
+            ret.setTime(fixedTime);
+            ret.setExtra(stripTimeExtras(entry.getExtra()));
+        } else {
+            ret.setTime(entry.getTime());
+            // parses any extended timestamps back into the entry
+            ret.setExtra(entry.getExtra());
+        }
+
+        if (entry.getMethod() == ZipEntry.STORED) {
+            if (content == null) {
+                ret.setSize(entry.getSize());
+                ret.setCompressedSize(entry.getSize());
+                ret.setCrc(entry.getCrc());
+            } else {
+                CRC32 crc = new CRC32();
+                crc.update(content);
+                ret.setSize(content.length);
+                ret.setCompressedSize(content.length);
+                ret.setCrc(crc.getValue());
+            }
+        }
+
+        return ret;
+    }
+
+    private static byte[] stripTimeExtras(byte[] extra) {
+        if (extra == null) {
+            return null;
+        }
+
+        byte[] ret = new byte[extra.length];
+        int len = 0;
+        int off = 0;
+
+        while (off + 4 <= extra.length) {
+            int id = (extra[off] & 0xff) | ((extra[off + 1] & 0xff) << 8);
+            int size = (extra[off + 2] & 0xff) | ((extra[off + 3] & 0xff) << 8);
+            int end = Math.min(extra.length, off + 4 + size);
+            boolean keep = true;
+
+            for (int timeId : timeExtraIds) {
+                if (id == timeId) {
+                    keep = false;
+                    break;
+                }
+            }
+
+            if (keep) {
+                System.arraycopy(extra, off, ret, len, end - off);
+                len += end - off;
+            }
+            off = end;
+        }
+
+        if (len == 0) {
+            return null;
+        }
+
+        byte[] trimmed = new byte[len];
+        System.arraycopy(ret, 0, trimmed, 0, len);
+        return trimmed;
+    }
+
+    private static byte[] readAll(InputStream in, byte[] buffer) throws IOException {
+        ByteArrayOutputStream ret = new ByteArrayOutputStream();
+        copy(in, ret, buffer);
+
+        return ret.toByteArray();
+    }
+
+    private static void copy(InputStream in, OutputStream out, byte[] buffer) throws IOException {
+        int len;
+
+        while ((len = in.read(buffer)) > 0) {
+            out.write(buffer, 0, len);
+        }
+    }
+
+    /**
+     * META-INF/ then the manifest first (as the jar tool and JarInputStream
+     * expect), everything else by name
+     */
+    private static final Comparator<PlannedEntry> canonicalOrder = new Comparator<PlannedEntry>() {
+        @Override
+        public int compare(PlannedEntry a, PlannedEntry b) {
+            int rankA = rank(a.name);
+            int rankB = rank(b.name);
+
+            return rankA != rankB ? Integer.compare(rankA, rankB) : a.name.compareTo(b.name);
+        }
+
+        private int rank(String name) {
+            if (name.equals(metaInf)) {
+                return 0;
+            } else if (name.equals(manifest)) {
+                return 1;
+            }
+            return 2;
+        }
+    };
+
+    /**
+     * What a write did with each entry of the source jar
+     */
+    public static final class Written {
+        private final Map<String, String> origins = new LinkedHashMap<>();
+        private final Set<String> rewritten = new HashSet<>();
+        private final Set<String> dropped = new HashSet<>();
+
+        private Written() {
+        }
+
+        /**
+         * @return output entry name -> source entry it came from (renamed or
+         * not), null for entries that were added
+         */
+        public Map<String, String> getOrigins() {
+            return origins;
+        }
+
+        /**
+         * @return output entries whose contents a stage rewrote
+         */
+        public Set<String> getRewritten() {
+            return rewritten;
+        }
+
+        /**
+         * @return source entries deliberately left out: dropped by a stage or
+         * replaced by an added entry
+         */
+        public Set<String> getDropped() {
+            return dropped;
+        }
+    }
+
+    /**
+     * One entry of the output jar and where its contents come from
+     */
+    private static final class PlannedEntry {
+        private final ZipEntry source;
+        private final File file;
+        private final byte[] data;
+        private final List<EntryTransformer> rewriters = new ArrayList<>();
+        private final List<String> rewriteNames = new ArrayList<>();
+        private String name;
+
+        private PlannedEntry(ZipEntry _source, File _file, byte[] _data) {
+            source = _source;
+            file = _file;
+            data = _data;
+        }
+
+        private String describe() {
+            return source != null ? source.getName() : file != null ? file.getName() : "a transformation stage";
+        }
+
+        private InputStream open(ZipFile zip) throws IOException {
+            return source != null ? zip.getInputStream(source) : new FileInputStream(file);
+        }
+    }
+}
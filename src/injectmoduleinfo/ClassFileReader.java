@@ -0,0 +1,464 @@
+/*******************************************************
+ * Copyright 2019 Draque Thompson
+ *
+ *  Module Injector is a module injection tool used for
+ *  modularizing jar files. This allows them to be
+ *  build into runnable images via jlink.
+ *
+ *  No guarantees about anything. Use with caution.
+ *  This thing is very much a hack, and I hope that all
+ *  dependencies will be made modular so that no one
+ *  has to ever use it again..
+ *
+ *******************************************************/
+
+package injectmoduleinfo;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Just enough class file parsing to pull out module names, service usage and
+ * referenced packages, without loading anything
+ *
+ * @author draque
+ */
+final class ClassFileReader {
+
+    private static final int accPublic = 0x0001;
+    private static final int accStatic = 0x0008;
+    private static final int accInterface = 0x0200;
+    private static final int accAbstract = 0x0400;
+    private static final String serviceLoader = "java/util/ServiceLoader";
+    private static final byte[] serviceLoaderBytes = serviceLoader.getBytes(StandardCharsets.UTF_8);
+    // Lpkg/Name; or Lpkg/Name<...> inside a descriptor or signature
+    private static final Pattern descriptorType = Pattern.compile("L([\\w$]+(?:/[\\w$]+)+)[;<]");
+
+    private ClassFileReader() {
+    }
+
+    /**
+     * Reads the module name out of a compiled module-info.class. Returns empty
+     * string if it cannot be determined.
+     */
+    static String moduleName(InputStream is) throws IOException {
+        DataInputStream in = new DataInputStream(is);
+        ConstantPool pool = ConstantPool.read(in);
+
+        if (pool == null) {
+            return "";
+        }
+
+        skipToMembers(in);
+        skipMembers(in); // fields
+        skipMembers(in); // methods
+
+        int attributeCount = in.readUnsignedShort();
+        for (int i = 0; i < attributeCount; i++) {
+            String attributeName = pool.utf8(in.readUnsignedShort());
+            int length = in.readInt();
+
+            if ("Module".equals(attributeName)) {
+                String name = pool.utf8(pool.first[in.readUnsignedShort()]);
+                return name == null ? "" : name;
+            }
+            skip(in, length);
+        }
+
+        return "";
+    }
+
+    /**
+     * Finds ServiceLoader.load(X.class, ...) calls, taking X from the class
+     * constant most recently pushed before the call. Calls with a service
+     * type that is not a constant cannot be detected.
+     *
+     * @param classBytes
+     * @return service types (binary names) the class loads
+     */
+    static List<String> serviceLoaderUses(byte[] classBytes) throws IOException {
+        List<String> ret = new ArrayList<>();
+
+        // the vast majority of classes never mention ServiceLoader; skip parsing them
+        if (!contains(classBytes, serviceLoaderBytes)) {
+            return ret;
+        }
+
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(classBytes));
+        ConstantPool pool = ConstantPool.read(in);
+
+        if (pool == null) {
+            return ret;
+        }
+
+        skipToMembers(in);
+        skipMembers(in); // fields
+
+        int methodCount = in.readUnsignedShort();
+        for (int i = 0; i < methodCount; i++) {
+            skip(in, 6);
+            int attributeCount = in.readUnsignedShort();
+
+            for (int j = 0; j < attributeCount; j++) {
+                String attributeName = pool.utf8(in.readUnsignedShort());
+                int length = in.readInt();
+
+                if ("Code".equals(attributeName)) {
+                    skip(in, 4); // max stack, max locals
+                    byte[] code = new byte[in.readInt()];
+                    in.readFully(code);
+                    scanCode(code, pool, ret);
+                    skip(in, length - 8 - code.length);
+                } else {
+                    skip(in, length);
+                }
+            }
+        }
+
+        return ret;
+    }
+
+    /**
+     * Packages of every class named in the constant pool, as class constants
+     * or inside descriptors and signatures. Strings that merely look like
+     * descriptors are included too, which errs on the side of reporting a
+     * change.
+     *
+     * @param classBytes
+     * @return dotted package names (classes in the unnamed package are ignored)
+     */
+    static Set<String> referencedPackages(byte[] classBytes) throws IOException {
+        Set<String> ret = new HashSet<>();
+        ConstantPool pool = ConstantPool.read(new DataInputStream(new ByteArrayInputStream(classBytes)));
+
+        if (pool == null) {
+            return ret;
+        }
+
+        for (int i = 1; i < pool.tags.length; i++) {
+            if (pool.tags[i] == 7) {
+                String name = pool.utf8(pool.first[i]);
+
+                // array classes are picked up as descriptors below
+                if (name != null && !name.startsWith("[")) {
+                    addPackage(name, ret);
+                }
+            } else if (pool.tags[i] == 1 && pool.utf8[i].indexOf('/') != -1) {
+                Matcher m = descriptorType.matcher(pool.utf8[i]);
+                while (m.find()) {
+                    addPackage(m.group(1), ret);
+                }
+            }
+        }
+
+        return ret;
+    }
+
+    private static void addPackage(String internalName, Set<String> packages) {
+        int lastSlash = internalName.lastIndexOf('/');
+
+        if (lastSlash > 0) {
+            packages.add(internalName.substring(0, lastSlash).replace('/', '.'));
+        }
+    }
+
+    /**
+     * Whether a class can be named in "provides ... with": a public static
+     * provider() method, or a public concrete class with a public no argument
+     * constructor
+     */
+    static boolean isServiceProvider(byte[] classBytes) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(classBytes));
+        ConstantPool pool = ConstantPool.read(in);
+
+        if (pool == null) {
+            return false;
+        }
+
+        int classAccess = in.readUnsignedShort();
+        skip(in, 4); // this, super
+        skip(in, in.readUnsignedShort() * 2); // interfaces
+        skipMembers(in); // fields
+
+        boolean publicConstructor = false;
+        boolean providerMethod = false;
+        int methodCount = in.readUnsignedShort();
+
+        for (int i = 0; i < methodCount; i++) {
+            int access = in.readUnsignedShort();
+            String name = pool.utf8(in.readUnsignedShort());
+            String descriptor = pool.utf8(in.readUnsignedShort());
+
+            if ((access & accPublic) != 0 && "<init>".equals(name) && "()V".equals(descriptor)) {
+                publicConstructor = true;
+            } else if ((access & (accPublic | accStatic)) == (accPublic | accStatic) && "provider".equals(name)
+                    && descriptor != null && descriptor.startsWith("()")) {
+                providerMethod = true;
+            }
+
+            int attributeCount = in.readUnsignedShort();
+            for (int j = 0; j < attributeCount; j++) {
+                skip(in, 2);
+                skip(in, in.readInt());
+            }
+        }
+
+        boolean concrete = (classAccess & (accInterface | accAbstract)) == 0;
+        return (classAccess & accPublic) != 0 && (providerMethod || (concrete && publicConstructor));
+    }
+
+    private static void scanCode(byte[] code, ConstantPool pool, List<String> uses) {
+        // class constants pushed and not yet known to be consumed
+        List<String> pending = new ArrayList<>();
+        // whether the previous instruction pushed the last pending constant
+        boolean afterClassConstant = false;
+        int pc = 0;
+
+        while (pc < code.length) {
+            int opcode = code[pc] & 0xff;
+            String classConstant = null;
+
+            if (opcode == 0x12 && pc + 1 < code.length) { // ldc
+                classConstant = pool.className(code[pc + 1] & 0xff);
+            } else if (opcode == 0x13 && pc + 2 < code.length) { // ldc_w
+                classConstant = pool.className(u2(code, pc + 1));
+            } else if (opcode == 0xb6 && pc + 2 < code.length && afterClassConstant) { // invokevirtual
+                // X.class.getClassLoader() as load()'s second argument is not the service,
+                // but in load(Foo.class, getClass().getClassLoader()) the pending Foo is
+                if (pool.isMethod(u2(code, pc + 1), "java/lang/Class", "getClassLoader")) {
+                    pending.remove(pending.size() - 1);
+                }
+            } else if (opcode == 0xb8 && pc + 2 < code.length) { // invokestatic
+                int ref = u2(code, pc + 1);
+
+                if (pool.isMethod(ref, serviceLoader, "load") || pool.isMethod(ref, serviceLoader, "loadInstalled")) {
+                    if (!pending.isEmpty() && !uses.contains(pending.get(pending.size() - 1))) {
+                        uses.add(pending.get(pending.size() - 1));
+                    }
+                    pending.clear();
+                }
+            }
+
+            if (classConstant != null) {
+                pending.add(classConstant);
+            }
+            afterClassConstant = classConstant != null;
+
+            int length = instructionLength(code, pc);
+            if (length <= 0) {
+                return;
+            }
+            pc += length;
+        }
+    }
+
+    /**
+     * @return length of instruction at pc, or -1 if it cannot be decoded
+     */
+    private static int instructionLength(byte[] code, int pc) {
+        int opcode = code[pc] & 0xff;
+
+        if (opcode == 0xaa || opcode == 0xab) { // tableswitch, lookupswitch
+            int base = (pc + 4) & ~3; // operands are 4 byte aligned
+            if (base + 12 > code.length) {
+                return -1;
+            }
+            if (opcode == 0xaa) {
+                int low = s4(code, base + 4);
+                int high = s4(code, base + 8);
+                return base - pc + 12 + (high - low + 1) * 4;
+            }
+            return base - pc + 8 + s4(code, base + 4) * 8;
+        } else if (opcode == 0xc4) { // wide
+            return pc + 1 < code.length && (code[pc + 1] & 0xff) == 0x84 ? 6 : 4;
+        } else if (opcode == 0x10 || opcode == 0x12 || (opcode >= 0x15 && opcode <= 0x19)
+                || (opcode >= 0x36 && opcode <= 0x3a) || opcode == 0xa9 || opcode == 0xbc) {
+            return 2;
+        } else if (opcode == 0x11 || opcode == 0x13 || opcode == 0x14 || opcode == 0x84
+                || (opcode >= 0x99 && opcode <= 0xa8) || (opcode >= 0xb2 && opcode <= 0xb8)
+                || opcode == 0xbb || opcode == 0xbd || opcode == 0xc0 || opcode == 0xc1
+                || opcode == 0xc6 || opcode == 0xc7) {
+            return 3;
+        } else if (opcode == 0xc5) { // multianewarray
+            return 4;
+        } else if (opcode == 0xb9 || opcode == 0xba || opcode == 0xc8 || opcode == 0xc9) {
+            return 5;
+        }
+
+        return 1;
+    }
+
+    private static int u2(byte[] code, int off) {
+        return ((code[off] & 0xff) << 8) | (code[off + 1] & 0xff);
+    }
+
+    private static int s4(byte[] code, int off) {
+        return ((code[off] & 0xff) << 24) | ((code[off + 1] & 0xff) << 16) | ((code[off + 2] & 0xff) << 8) | (code[off + 3] & 0xff);
+    }
+
+    private static boolean contains(byte[] haystack, byte[] needle) {
+        outer:
+        for (int i = 0; i + needle.length <= haystack.length; i++) {
+            for (int j = 0; j < needle.length; j++) {
+                if (haystack[i + j] != needle[j]) {
+                    continue outer;
+                }
+            }
+            return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * skips access flags, this/super class and interfaces
+     */
+    private static void skipToMembers(DataInputStream in) throws IOException {
+        skip(in, 6);
+        skip(in, in.readUnsignedShort() * 2);
+    }
+
+    private static void skipMembers(DataInputStream in) throws IOException {
+        int count = in.readUnsignedShort();
+
+        for (int i = 0; i < count; i++) {
+            skip(in, 6);
+            int attributeCount = in.readUnsignedShort();
+            for (int j = 0; j < attributeCount; j++) {
+                skip(in, 2);
+                skip(in, in.readInt());
+            }
+        }
+    }
+
+    /**
+     * skipBytes() may stop short on inflating streams, so loop until done
+     */
+    private static void skip(DataInputStream in, int count) throws IOException {
+        int remaining = count;
+
+        while (remaining > 0) {
+            int skipped = in.skipBytes(remaining);
+            if (skipped <= 0) {
+                in.readByte(); // throws EOFException at end of stream
+                skipped = 1;
+            }
+            remaining -= skipped;
+        }
+    }
+
+    /**
+     * Constant pool with utf8 values and the index operands of each entry
+     */
+    private static final class ConstantPool {
+        private final int[] tags;
+        private final String[] utf8;
+        // first and second index operand of reference style entries
+        private final int[] first;
+        private final int[] second;
+
+        private ConstantPool(int count) {
+            tags = new int[count];
+            utf8 = new String[count];
+            first = new int[count];
+            second = new int[count];
+        }
+
+        /**
+         * @return pool, or null if this is not a class file or uses unknown constants
+         */
+        private static ConstantPool read(DataInputStream in) throws IOException {
+            if (in.readInt() != 0xCAFEBABE) {
+                return null;
+            }
+            in.readUnsignedShort(); // minor
+            in.readUnsignedShort(); // major
+
+            ConstantPool ret = new ConstantPool(in.readUnsignedShort());
+
+            for (int i = 1; i < ret.tags.length; i++) {
+                int tag = in.readUnsignedByte();
+                ret.tags[i] = tag;
+
+                switch (tag) {
+                    case 1: // Utf8
+                        ret.utf8[i] = in.readUTF();
+                        break;
+                    case 7: // Class
+                    case 8: // String
+                    case 16: // MethodType
+                    case 19: // Module
+                    case 20: // Package
+                        ret.first[i] = in.readUnsignedShort();
+                        break;
+                    case 15: // MethodHandle
+                        skip(in, 3);
+                        break;
+                    case 9: // Fieldref
+                    case 10: // Methodref
+                    case 11: // InterfaceMethodref
+                    case 12: // NameAndType
+                    case 17: // Dynamic
+                    case 18: // InvokeDynamic
+                        ret.first[i] = in.readUnsignedShort();
+                        ret.second[i] = in.readUnsignedShort();
+                        break;
+                    case 3: // Integer
+                    case 4: // Float
+                        skip(in, 4);
+                        break;
+                    case 5: // Long
+                    case 6: // Double
+                        skip(in, 8);
+                        i++;
+                        break;
+                    default:
+                        return null;
+                }
+            }
+
+            return ret;
+        }
+
+        private String utf8(int index) {
+            return index > 0 && index < utf8.length ? utf8[index] : null;
+        }
+
+        /**
+         * @return binary (dotted) name of a Class constant, null for anything
+         * else including array types
+         */
+        private String className(int index) {
+            if (index <= 0 || index >= tags.length || tags[index] != 7) {
+                return null;
+            }
+
+            String name = utf8(first[index]);
+            return name == null || name.startsWith("[") ? null : name.replace('/', '.');
+        }
+
+        /**
+         * @return true if index is a method reference to owner.name (any descriptor)
+         */
+        private boolean isMethod(int index, String owner, String name) {
+            if (index <= 0 || index >= tags.length || (tags[index] != 10 && tags[index] != 11)) {
+                return false;
+            }
+
+            int classIndex = first[index];
+            int nameAndType = second[index];
+
+            return classIndex < tags.length && tags[classIndex] == 7 && owner.equals(utf8(first[classIndex]))
+                    && nameAndType < tags.length && tags[nameAndType] == 12 && name.equals(utf8(first[nameAndType]));
+        }
+    }
+}
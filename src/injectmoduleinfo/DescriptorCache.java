@@ -0,0 +1,308 @@
+/*******************************************************
+ * Copyright 2019 Draque Thompson
+ *
+ *  Module Injector is a module injection tool used for
+ *  modularizing jar files. This allows them to be
+ *  build into runnable images via jlink.
+ *
+ *  No guarantees about anything. Use with caution.
+ *  This thing is very much a hack, and I hope that all
+ *  dependencies will be made modular so that no one
+ *  has to ever use it again..
+ *
+ *******************************************************/
+
+package injectmoduleinfo;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Remembers the descriptor injected into each library, together with a
+ * summary of the jar it was generated for. When a later version of the
+ * library summarizes the same (or it only adds or removes packages), the
+ * stored descriptor is reused instead of running jdeps, and the stored
+ * module-info.class too if nothing needed patching.
+ *
+ * Libraries are keyed by the automatic module name of their file name, so
+ * foo-2.3.1.jar and foo-2.3.2.jar share an entry.
+ *
+ * @author draque
+ */
+final class DescriptorCache {
+
+    private static final String classStr = ".class";
+    private static final String moduleInfoClass = "module-info.class";
+    private static final String suffix = ".properties";
+    private static final Pattern exportLine = Pattern.compile("[ \\t]*exports\\s+[\\w.]+\\s*;[^\\n]*\\n");
+    private final File dir;
+
+    /**
+     * @param _dir directory holding one file per library (created on first store)
+     */
+    DescriptorCache(File _dir) {
+        dir = _dir;
+    }
+
+    /**
+     * Reads what the descriptor depends on out of the jar: its packages, the
+     * packages it references, its services and the names of the dependencies
+     * it is analyzed against
+     *
+     * @param target jar to summarize
+     * @param dependencies jars on the module path
+     * @return
+     * @throws IOException
+     */
+    static Summary summarize(File target, List<File> dependencies) throws IOException {
+        Set<String> packages = new TreeSet<>();
+        Set<String> referenced = new TreeSet<>();
+        Set<String> dependencyNames = new TreeSet<>();
+        Set<String> services = new TreeSet<>();
+        ServiceScanner scanner = new ServiceScanner();
+
+        try (final ZipFile zip = new ZipFile(target)) {
+            for (Enumeration<? extends ZipEntry> e = zip.entries(); e.hasMoreElements();) {
+                ZipEntry entry = e.nextElement();
+                String pkg = PackageConflictCheck.packageOf(entry.getName());
+                boolean isClass = entry.getName().endsWith(classStr) && !entry.getName().endsWith(moduleInfoClass);
+
+                if (pkg != null) {
+                    packages.add(pkg);
+                }
+
+                if (entry.isDirectory() || !(isClass || scanner.wants(entry.getName()))) {
+                    continue;
+                }
+
+                byte[] content;
+                try (InputStream in = zip.getInputStream(entry)) {
+                    content = readAll(in);
+                }
+
+                if (isClass) {
+                    referenced.addAll(ClassFileReader.referencedPackages(content));
+                }
+                if (scanner.wants(entry.getName())) {
+                    scanner.scan(entry.getName(), content);
+                }
+            }
+
+            for (String service : scanner.getUses()) {
+                services.add("uses " + service);
+            }
+
+            Map<String, List<String>> providers = scanner.validProviders(entryName -> {
+                ZipEntry entry = zip.getEntry(entryName);
+                if (entry == null) {
+                    return null;
+                }
+                try (InputStream in = zip.getInputStream(entry)) {
+                    return readAll(in);
+                }
+            });
+
+            for (Map.Entry<String, List<String>> provided : providers.entrySet()) {
+                services.add("provides " + provided.getKey() + " with " + String.join(",", provided.getValue()));
+            }
+        }
+
+        referenced.removeAll(packages);
+
+        for (File dependency : dependencies) {
+            dependencyNames.add(PackageConflictCheck.automaticModuleName(dependency.getName()));
+        }
+
+        return new Summary(PackageConflictCheck.automaticModuleName(target.getName()), packages, referenced, dependencyNames, services);
+    }
+
+    /**
+     * @param current summary of the jar about to be injected
+     * @return descriptor stored for an earlier version if it can be reused for
+     * this one, otherwise null
+     * @throws IOException
+     */
+    Previous find(Summary current) throws IOException {
+        File file = new File(dir, current.key + suffix);
+
+        if (!file.isFile()) {
+            return null;
+        }
+
+        Properties props = new Properties();
+        try (InputStream in = new FileInputStream(file)) {
+            props.load(in);
+        }
+
+        Summary stored = new Summary(current.key, split(props, "packages"), split(props, "referencedPackages"),
+                split(props, "dependencies"), split(props, "services"));
+        String moduleText = props.getProperty("moduleInfoJava");
+        String moduleClass = props.getProperty("moduleInfoClass");
+
+        // requires only hold while nothing new is referenced from outside the jar
+        if (moduleText == null || moduleClass == null
+                || !stored.referenced.containsAll(current.referenced)
+                || !stored.dependencies.equals(current.dependencies)
+                || !stored.services.equals(current.services)) {
+            return null;
+        }
+
+        return new Previous(stored, moduleText, Base64.getDecoder().decode(moduleClass));
+    }
+
+    /**
+     * Records the descriptor injected for the summarized jar, replacing any
+     * from an earlier version
+     *
+     * @param summary
+     * @param moduleText module-info.java as injected
+     * @param moduleClass module-info.class as injected
+     * @throws IOException
+     */
+    void store(Summary summary, String moduleText, byte[] moduleClass) throws IOException {
+        Properties props = new Properties();
+        props.setProperty("packages", String.join("\n", summary.packages));
+        props.setProperty("referencedPackages", String.join("\n", summary.referenced));
+        props.setProperty("dependencies", String.join("\n", summary.dependencies));
+        props.setProperty("services", String.join("\n", summary.services));
+        props.setProperty("moduleInfoJava", moduleText);
+        props.setProperty("moduleInfoClass", Base64.getEncoder().encodeToString(moduleClass));
+
+        dir.mkdirs();
+        // written aside and moved, so concurrent jobs never see half a file
+        File tmp = File.createTempFile(summary.key + ".new", ".tmp", dir);
+        try {
+            try (OutputStream out = new FileOutputStream(tmp)) {
+                props.store(out, "Module Info Injector descriptor for " + summary.key);
+            }
+            Files.move(tmp.toPath(), new File(dir, summary.key + suffix).toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            tmp.delete();
+        }
+    }
+
+    private static Set<String> split(Properties props, String key) {
+        String value = props.getProperty(key, "");
+
+        return value.isEmpty() ? Collections.<String>emptySet() : new TreeSet<>(Arrays.asList(value.split("\n")));
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int len;
+
+        while ((len = in.read(buffer)) > 0) {
+            out.write(buffer, 0, len);
+        }
+
+        return out.toByteArray();
+    }
+
+    /**
+     * What a generated descriptor depends on
+     */
+    static final class Summary {
+        private final String key;
+        private final Set<String> packages;
+        private final Set<String> referenced;
+        private final Set<String> dependencies;
+        private final Set<String> services;
+
+        private Summary(String _key, Set<String> _packages, Set<String> _referenced, Set<String> _dependencies, Set<String> _services) {
+            key = _key;
+            packages = _packages;
+            referenced = _referenced;
+            dependencies = _dependencies;
+            services = _services;
+        }
+
+        String getKey() {
+            return key;
+        }
+    }
+
+    /**
+     * A stored descriptor that is compatible with the current jar
+     */
+    static final class Previous {
+        private final Summary summary;
+        private final String moduleText;
+        private final byte[] moduleClass;
+
+        private Previous(Summary _summary, String _moduleText, byte[] _moduleClass) {
+            summary = _summary;
+            moduleText = _moduleText;
+            moduleClass = _moduleClass;
+        }
+
+        /**
+         * @param current
+         * @return stored module text with exports added for new packages and
+         * removed for packages no longer in the jar
+         */
+        String patch(Summary current) {
+            String ret = moduleText;
+            String added = "";
+
+            for (String pkg : summary.packages) {
+                if (!current.packages.contains(pkg)) {
+                    ret = ret.replaceAll("\\s*exports\\s+" + Pattern.quote(pkg) + "\\s*;", "");
+                }
+            }
+
+            for (String pkg : current.packages) {
+                if (!summary.packages.contains(pkg)) {
+                    added += "    exports " + pkg + ";\n";
+                }
+            }
+
+            if (!added.isEmpty()) {
+                // new exports go after the existing ones, or at the end if there are none
+                Matcher m = exportLine.matcher(ret);
+                int at = -1;
+
+                while (m.find()) {
+                    at = m.end();
+                }
+                if (at == -1) {
+                    at = ret.lastIndexOf('}');
+                    added = "\n" + added;
+                }
+                if (at != -1) {
+                    ret = ret.substring(0, at) + added + ret.substring(at);
+                }
+            }
+
+            return ret;
+        }
+
+        String getModuleText() {
+            return moduleText;
+        }
+
+        byte[] getModuleClass() {
+            return moduleClass;
+        }
+    }
+}
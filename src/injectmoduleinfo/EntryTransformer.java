@@ -0,0 +1,88 @@
+/*******************************************************
+ * Copyright 2019 Draque Thompson
+ *
+ *  Module Injector is a module injection tool used for
+ *  modularizing jar files. This allows them to be
+ *  build into runnable images via jlink.
+ *
+ *  No guarantees about anything. Use with caution.
+ *  This thing is very much a hack, and I hope that all
+ *  dependencies will be made modular so that no one
+ *  has to ever use it again..
+ *
+ *******************************************************/
+
+package injectmoduleinfo;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A stage applied to every entry while the jar is rewritten, so that any
+ * number of transformations cost a single read and write of the archive.
+ * Stages run in order; each sees the name left by the stage before it.
+ *
+ * Additional stages can be supplied by listing implementations in
+ * META-INF/services/injectmoduleinfo.EntryTransformer on the classpath.
+ * Implementations must have a public no argument constructor for that.
+ *
+ * @author draque
+ */
+public abstract class EntryTransformer {
+
+    /**
+     * Only original entries pass through stages; module-info and other
+     * entries the injector adds do not.
+     *
+     * @param name entry name
+     * @return false to leave the entry out of the output jar
+     */
+    public boolean keep(String name) {
+        return true;
+    }
+
+    /**
+     * Renaming onto a name another entry already has makes the write fail.
+     *
+     * @param name entry name
+     * @return name to write the entry under
+     */
+    public String rename(String name) {
+        return name;
+    }
+
+    /**
+     * Entries are only loaded into memory if some stage rewrites them.
+     *
+     * @param name entry name
+     * @return true if rewrite() should be called for this entry
+     */
+    public boolean rewrites(String name) {
+        return false;
+    }
+
+    /**
+     * @param name entry name
+     * @param content current entry contents
+     * @return replacement contents
+     * @throws IOException
+     */
+    public byte[] rewrite(String name, byte[] content) throws IOException {
+        return content;
+    }
+
+    /**
+     * Called once every existing entry has been through keep() and rename().
+     * Added entries are not passed through the other stages, and must not use
+     * a name already in the jar (the write fails if they do).
+     *
+     * @param names entry names the output jar will contain so far
+     * @return entry name -> contents to add
+     * @throws IOException
+     */
+    public Map<String, byte[]> addEntries(Set<String> names) throws IOException {
+        return Collections.emptyMap();
+    }
+}
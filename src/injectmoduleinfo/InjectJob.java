@@ -0,0 +1,210 @@
+/*******************************************************
+ * Copyright 2019 Draque Thompson
+ *
+ *  Module Injector is a module injection tool used for
+ *  modularizing jar files. This allows them to be
+ *  build into runnable images via jlink.
+ *
+ *  No guarantees about anything. Use with caution.
+ *  This thing is very much a hack, and I hope that all
+ *  dependencies will be made modular so that no one
+ *  has to ever use it again..
+ *
+ *******************************************************/
+
+package injectmoduleinfo;
+
+import java.io.File;
+import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import javax.swing.JOptionPane;
+import javax.swing.SwingUtilities;
+
+/**
+ * One queued injection: a target with its own dependency set and options,
+ * plus its live status. Status fields are written by the worker thread and
+ * read by the UI.
+ *
+ * @author draque
+ */
+public final class InjectJob implements InjectListener {
+
+    public enum State {
+        QUEUED, RUNNING, DONE, SKIPPED, FAILED
+    }
+
+    private final File target;
+    private final List<File> dependencies;
+    private final InjectOptions options;
+    private final Runnable onChange;
+    private volatile State state = State.QUEUED;
+    private volatile String phase = "";
+    private volatile String result = "";
+    private volatile long startNanos = 0;
+    private volatile long endNanos = 0;
+    private volatile Exception error = null;
+
+    /**
+     * @param _target jar to modularize
+     * @param _dependencies copied, so later changes by the caller don't leak in
+     * @param _options
+     * @param _onChange called (on the worker thread) whenever status changes
+     */
+    public InjectJob(File _target, List<File> _dependencies, InjectOptions _options, Runnable _onChange) {
+        target = _target;
+        dependencies = Collections.unmodifiableList(new ArrayList<>(_dependencies));
+        options = _options;
+        onChange = _onChange;
+    }
+
+    /**
+     * Runs the injection on the calling thread, recording the outcome
+     */
+    public void run() {
+        state = State.RUNNING;
+        result = "";
+        error = null;
+        startNanos = System.nanoTime();
+        endNanos = 0;
+        onChange.run();
+
+        try {
+            boolean injected = ModuleInfoClass.injectJob(target, dependencies, options, this);
+            state = injected ? State.DONE : State.SKIPPED;
+            result = injected ? "Modularized" : "Skipped";
+        } catch (ModuleInfoClass.DependancyException e) {
+            fail(e, "Missing " + e.getMissing().getClassCount() + " classes in " + e.getMissing().getPackageCount() + " packages");
+        } catch (ModuleInfoClass.PackageConflictException e) {
+            fail(e, "Package conflicts");
+        } catch (Exception e) {
+            fail(e, e.getLocalizedMessage());
+        } finally {
+            endNanos = System.nanoTime();
+            phase = "";
+            onChange.run();
+        }
+    }
+
+    /**
+     * Caps the heap of the jdeps and javac runs of this job (see
+     * InjectOptions.setToolMemory()). The job's options are changed, so each
+     * job needs its own.
+     *
+     * @param toolMemory bytes, 0 for the tools' default
+     */
+    public void setToolMemory(long toolMemory) {
+        options.setToolMemory(toolMemory);
+    }
+
+    /**
+     * Puts a finished job back in the queued state before it is resubmitted
+     */
+    public void reset() {
+        state = State.QUEUED;
+        phase = "";
+        result = "";
+        error = null;
+        startNanos = 0;
+        endNanos = 0;
+        onChange.run();
+    }
+
+    private void fail(Exception e, String message) {
+        state = State.FAILED;
+        error = e;
+        result = message;
+    }
+
+    @Override
+    public void phase(String _phase) {
+        phase = _phase;
+        onChange.run();
+    }
+
+    @Override
+    public void notice(String message) {
+        result = message;
+        onChange.run();
+    }
+
+    /**
+     * Asks on the event thread; the job waits for the answer
+     */
+    @Override
+    public boolean confirm(final String message) {
+        final boolean[] ret = {false};
+
+        try {
+            SwingUtilities.invokeAndWait(() -> {
+                ret[0] = JOptionPane.showConfirmDialog(null, target.getName() + ":\n" + message,
+                        "Warning", JOptionPane.YES_NO_OPTION) == JOptionPane.YES_OPTION;
+            });
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (InvocationTargetException e) {
+            return false;
+        }
+
+        return ret[0];
+    }
+
+    public File getTarget() {
+        return target;
+    }
+
+    public List<File> getDependencies() {
+        return dependencies;
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    public String getPhase() {
+        return phase;
+    }
+
+    public String getResult() {
+        return result;
+    }
+
+    /**
+     * @return exception the job failed with, null unless FAILED
+     */
+    public Exception getError() {
+        return error;
+    }
+
+    public boolean isFinished() {
+        return state == State.DONE || state == State.SKIPPED || state == State.FAILED;
+    }
+
+    /**
+     * @return time spent running so far (or in total once finished)
+     */
+    public long getElapsedMillis() {
+        long start = startNanos;
+
+        if (start == 0) {
+            return 0;
+        }
+
+        long end = endNanos == 0 ? System.nanoTime() : endNanos;
+        return (end - start) / 1000000;
+    }
+
+    /**
+     * @return target megabytes processed per second, 0 until the job finishes
+     */
+    public double getThroughputMBps() {
+        long elapsed = getElapsedMillis();
+
+        if (elapsed == 0 || !isFinished()) {
+            return 0;
+        }
+
+        return (target.length() / (1024.0 * 1024.0)) / (elapsed / 1000.0);
+    }
+}
@@ -0,0 +1,41 @@
+/*******************************************************
+ * Copyright 2019 Draque Thompson
+ *
+ *  Module Injector is a module injection tool used for
+ *  modularizing jar files. This allows them to be
+ *  build into runnable images via jlink.
+ *
+ *  No guarantees about anything. Use with caution.
+ *  This thing is very much a hack, and I hope that all
+ *  dependencies will be made modular so that no one
+ *  has to ever use it again..
+ *
+ *******************************************************/
+
+package injectmoduleinfo;
+
+/**
+ * Receives progress from an injection and answers its questions. Calls come
+ * from whatever thread runs the injection.
+ *
+ * @author draque
+ */
+public interface InjectListener {
+
+    /**
+     * @param phase short description of the step now running
+     */
+    void phase(String phase);
+
+    /**
+     * @param message something the user should know, but that does not stop
+     * the injection
+     */
+    void notice(String message);
+
+    /**
+     * @param message yes/no question
+     * @return true for yes
+     */
+    boolean confirm(String message);
+}
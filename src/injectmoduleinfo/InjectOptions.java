@@ -0,0 +1,130 @@
+/*******************************************************
+ * Copyright 2019 Draque Thompson
+ *
+ *  Module Injector is a module injection tool used for
+ *  modularizing jar files. This allows them to be
+ *  build into runnable images via jlink.
+ *
+ *  No guarantees about anything. Use with caution.
+ *  This thing is very much a hack, and I hope that all
+ *  dependencies will be made modular so that no one
+ *  has to ever use it again..
+ *
+ *******************************************************/
+
+package injectmoduleinfo;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Settings for a single injection. Defaults produce the same jar the
+ * injector originally did.
+ *
+ * @author draque
+ */
+public final class InjectOptions {
+
+    private boolean reproducible = false;
+    private boolean stripSignatures = false;
+    private boolean addAutomaticModuleName = false;
+    private boolean verify = true;
+    private boolean incremental = false;
+    private long toolMemory = 0;
+    private File descriptorCache = new File(System.getProperty("user.home"), ".moduleinfoinject" + File.separator + "descriptors");
+    private final List<String> dropPatterns = new ArrayList<>();
+    private final List<EntryTransformer> stages = new ArrayList<>();
+
+    /**
+     * @return whether output jars use canonical entry order and fixed timestamps
+     */
+    public boolean isReproducible() {
+        return reproducible;
+    }
+
+    public void setReproducible(boolean _reproducible) {
+        reproducible = _reproducible;
+    }
+
+    /**
+     * @return whether signature files and manifest digests are removed
+     */
+    public boolean isStripSignatures() {
+        return stripSignatures;
+    }
+
+    public void setStripSignatures(boolean _stripSignatures) {
+        stripSignatures = _stripSignatures;
+    }
+
+    /**
+     * @return whether the generated module's name is written to the manifest
+     */
+    public boolean isAddAutomaticModuleName() {
+        return addAutomaticModuleName;
+    }
+
+    public void setAddAutomaticModuleName(boolean _addAutomaticModuleName) {
+        addAutomaticModuleName = _addAutomaticModuleName;
+    }
+
+    /**
+     * @return whether the rewritten jar is checked against the original
+     */
+    public boolean isVerify() {
+        return verify;
+    }
+
+    public void setVerify(boolean _verify) {
+        verify = _verify;
+    }
+
+    /**
+     * @return whether descriptors are remembered per library and reused for
+     * later versions with compatible packages and references
+     */
+    public boolean isIncremental() {
+        return incremental;
+    }
+
+    public void setIncremental(boolean _incremental) {
+        incremental = _incremental;
+    }
+
+    /**
+     * @return max heap in bytes given to jdeps and javac, 0 for their default
+     */
+    public long getToolMemory() {
+        return toolMemory;
+    }
+
+    public void setToolMemory(long _toolMemory) {
+        toolMemory = _toolMemory;
+    }
+
+    /**
+     * @return directory remembered descriptors are kept in
+     */
+    public File getDescriptorCache() {
+        return descriptorCache;
+    }
+
+    public void setDescriptorCache(File _descriptorCache) {
+        descriptorCache = _descriptorCache;
+    }
+
+    /**
+     * @return globs of entries to leave out of the output jar (mutable)
+     */
+    public List<String> getDropPatterns() {
+        return dropPatterns;
+    }
+
+    /**
+     * @return additional stages run after the built in ones (mutable)
+     */
+    public List<EntryTransformer> getStages() {
+        return stages;
+    }
+}
@@ -0,0 +1,436 @@
+/*******************************************************
+ * Copyright 2019 Draque Thompson
+ *
+ *  Module Injector is a module injection tool used for
+ *  modularizing jar files. This allows them to be
+ *  build into runnable images via jlink.
+ *
+ *  No guarantees about anything. Use with caution.
+ *  This thing is very much a hack, and I hope that all
+ *  dependencies will be made modular so that no one
+ *  has to ever use it again..
+ *
+ *******************************************************/
+
+package injectmoduleinfo;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import javax.swing.JOptionPane;
+import javax.swing.SpinnerNumberModel;
+import javax.swing.SwingUtilities;
+import javax.swing.Timer;
+import javax.swing.table.AbstractTableModel;
+
+/**
+ * Runs queued injections concurrently within a configurable job, memory and
+ * disk budget (see JobScheduler) and shows their live status. Double click a failed job to see why it failed.
+ *
+ * @author draque
+ */
+public final class JobQueueForm extends javax.swing.JFrame {
+
+    private static final int refreshMs = 500;
+    private static final long mb = 1024L * 1024L;
+    private static final int maxPool = 64;
+    private static final int minBudgetMb = 128;
+    private final List<InjectJob> jobs = new ArrayList<>();
+    private final JobTableModel model = new JobTableModel();
+    private final JobScheduler scheduler;
+
+    /**
+     * Creates new form JobQueueForm
+     */
+    public JobQueueForm() {
+        initComponents();
+
+        // each job runs jdeps and javac in their own JVMs, so default to half the cores
+        int poolSize = Math.min(maxPool, Math.max(1, Runtime.getRuntime().availableProcessors() / 2));
+        // defaults below the spinner minimums (small machines, nearly full drives) would be rejected by the spinners
+        int memoryMb = Math.max(minBudgetMb, defaultMemoryMb());
+        // jobs work next to their jars, which are usually under the home directory
+        int diskMb = Math.max(minBudgetMb, (int) Math.min(Integer.MAX_VALUE, new File(System.getProperty("user.home")).getUsableSpace() / 2 / mb));
+        
+        scheduler = new JobScheduler(poolSize, memoryMb * mb, diskMb * mb);
+        spnPool.setModel(new SpinnerNumberModel(poolSize, 1, maxPool, 1));
+        spnMemory.setModel(new SpinnerNumberModel(memoryMb, minBudgetMb, Integer.MAX_VALUE, 256));
+        spnDisk.setModel(new SpinnerNumberModel(diskMb, minBudgetMb, Integer.MAX_VALUE, 1024));
+        tblJobs.setModel(model);
+
+        // keeps elapsed time ticking for running jobs
+        new Timer(refreshMs, e -> {
+            if (scheduler.getRunningCount() > 0) {
+                model.fireTableRowsUpdated(0, Math.max(0, jobs.size() - 1));
+            }
+            updateUsage();
+        }).start();
+
+        this.setLocationRelativeTo(null);
+    }
+
+    /**
+     * Queues a job; the scheduler starts it once it fits in the budget. Jobs
+     * whose jars overlap an unfinished one are refused (see conflictWith()).
+     *
+     * @param target
+     * @param dependencies copied into the job
+     * @param options
+     */
+    public void addJob(File target, List<File> dependencies, InjectOptions options) {
+        InjectJob conflict = conflictWith(target, dependencies);
+
+        if (conflict != null) {
+            refuse(target, conflict);
+            return;
+        }
+
+        final InjectJob[] job = new InjectJob[1];
+        job[0] = new InjectJob(target, dependencies, options, () -> jobChanged(job[0]));
+        jobs.add(job[0]);
+        model.fireTableRowsInserted(jobs.size() - 1, jobs.size() - 1);
+        scheduler.submit(job[0]);
+    }
+
+    /**
+     * @return true while any job is queued or running
+     */
+    public boolean hasUnfinishedJobs() {
+        for (InjectJob job : jobs) {
+            if (!job.isFinished()) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private void jobChanged(final InjectJob job) {
+        SwingUtilities.invokeLater(() -> {
+            int row = jobs.indexOf(job);
+            if (row != -1) {
+                model.fireTableRowsUpdated(row, row);
+            }
+        });
+    }
+
+    private void retrySelected() {
+        for (int row : tblJobs.getSelectedRows()) {
+            InjectJob job = jobs.get(tblJobs.convertRowIndexToModel(row));
+
+            if (job.getState() != InjectJob.State.FAILED) {
+                continue;
+            }
+
+            InjectJob conflict = conflictWith(job.getTarget(), job.getDependencies());
+
+            if (conflict != null) {
+                refuse(job.getTarget(), conflict);
+            } else {
+                job.reset();
+                scheduler.submit(job);
+            }
+        }
+    }
+
+    /**
+     * A job rewrites its target in place while reading its dependencies, so
+     * two unfinished jobs must not share a target, and neither may rewrite a
+     * jar the other reads. Direct injections are held to the same rule.
+     *
+     * @return the unfinished job that conflicts with the given jars, or null
+     */
+    InjectJob conflictWith(File target, List<File> dependencies) {
+        String targetPath = pathOf(target);
+        List<String> dependencyPaths = new ArrayList<>();
+
+        for (File dependency : dependencies) {
+            dependencyPaths.add(pathOf(dependency));
+        }
+
+        for (InjectJob job : jobs) {
+            if (job.isFinished()) {
+                continue;
+            }
+
+            String jobTarget = pathOf(job.getTarget());
+
+            if (jobTarget.equals(targetPath) || dependencyPaths.contains(jobTarget)) {
+                return job;
+            }
+            for (File dependency : job.getDependencies()) {
+                if (pathOf(dependency).equals(targetPath)) {
+                    return job;
+                }
+            }
+        }
+
+        return null;
+    }
+
+    private static String pathOf(File file) {
+        return file.toPath().toAbsolutePath().normalize().toString();
+    }
+
+    private void refuse(File target, InjectJob conflict) {
+        JOptionPane.showMessageDialog(this, "Not queueing " + target.getName() + ": it shares jars with the unfinished job for "
+                + conflict.getTarget().getName() + ".\nWait for that job to finish, then queue it again.");
+    }
+
+    private void clearFinished() {
+        jobs.removeIf(job -> job.getState() == InjectJob.State.DONE || job.getState() == InjectJob.State.SKIPPED);
+        model.fireTableDataChanged();
+    }
+
+    private void showFailure(InjectJob job) {
+        Exception error = job.getError();
+
+        if (error instanceof ModuleInfoClass.DependancyException) {
+            MissingDependencyForm.run(((ModuleInfoClass.DependancyException) error).getMissing());
+        } else if (error != null) {
+            TextDisplayForm.run(job.getTarget().getName(), error.getLocalizedMessage());
+        }
+    }
+
+    private void updateUsage() {
+        lblUsage.setText("Running " + scheduler.getRunningCount() + ", waiting " + scheduler.getWaitingCount()
+                + " (~" + scheduler.getMemoryInUse() / mb + " MB memory, ~" + scheduler.getDiskInUse() / mb + " MB disk in use)");
+    }
+    
+    /**
+     * @return half the physical memory, or four times this JVM's heap limit
+     * if the platform doesn't report it
+     */
+    @SuppressWarnings("deprecation") // getTotalMemorySize() replaces it, but only from Java 14
+    private static int defaultMemoryMb() {
+        long physical = 0;
+        java.lang.management.OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+        
+        if (os instanceof com.sun.management.OperatingSystemMXBean) {
+            physical = ((com.sun.management.OperatingSystemMXBean) os).getTotalPhysicalMemorySize();
+        }
+        if (physical <= 0) {
+            physical = Runtime.getRuntime().maxMemory() * 4;
+        }
+        
+        return (int) Math.min(Integer.MAX_VALUE, physical / 2 / mb);
+    }
+
+    /**
+     * This method is called from within the constructor to initialize the form.
+     * WARNING: Do NOT modify this code. The content of this method is always
+     * regenerated by the Form Editor.
+     */
+    @SuppressWarnings("unchecked")
+    // <editor-fold defaultstate="collapsed" desc="Generated Code">//GEN-BEGIN:initComponents
+    private void initComponents() {
+
+        lblPool = new javax.swing.JLabel();
+        spnPool = new javax.swing.JSpinner();
+        lblMemory = new javax.swing.JLabel();
+        spnMemory = new javax.swing.JSpinner();
+        lblDisk = new javax.swing.JLabel();
+        spnDisk = new javax.swing.JSpinner();
+        jScrollPane1 = new javax.swing.JScrollPane();
+        tblJobs = new javax.swing.JTable();
+        btnClearFinished = new javax.swing.JButton();
+        btnRetry = new javax.swing.JButton();
+        lblUsage = new javax.swing.JLabel();
+
+        setDefaultCloseOperation(javax.swing.WindowConstants.HIDE_ON_CLOSE);
+        setTitle("Injection Queue");
+
+        lblPool.setText("Concurrent jobs");
+
+        spnPool.setToolTipText("Number of jars injected at the same time");
+        spnPool.addChangeListener(new javax.swing.event.ChangeListener() {
+            public void stateChanged(javax.swing.event.ChangeEvent evt) {
+                spnPoolStateChanged(evt);
+            }
+        });
+
+        lblMemory.setText("Memory (MB)");
+
+        spnMemory.setToolTipText("Estimated memory running jobs may use together; other jobs wait");
+        spnMemory.addChangeListener(new javax.swing.event.ChangeListener() {
+            public void stateChanged(javax.swing.event.ChangeEvent evt) {
+                spnMemoryStateChanged(evt);
+            }
+        });
+
+        lblDisk.setText("Disk (MB)");
+
+        spnDisk.setToolTipText("Estimated temporary disk space running jobs may use together; other jobs wait");
+        spnDisk.addChangeListener(new javax.swing.event.ChangeListener() {
+            public void stateChanged(javax.swing.event.ChangeEvent evt) {
+                spnDiskStateChanged(evt);
+            }
+        });
+
+        tblJobs.setFillsViewportHeight(true);
+        tblJobs.addMouseListener(new java.awt.event.MouseAdapter() {
+            public void mouseClicked(java.awt.event.MouseEvent evt) {
+                tblJobsMouseClicked(evt);
+            }
+        });
+        jScrollPane1.setViewportView(tblJobs);
+
+        btnClearFinished.setText("Clear Finished");
+        btnClearFinished.setToolTipText("Remove successful and skipped jobs from the list");
+        btnClearFinished.addActionListener(new java.awt.event.ActionListener() {
+            public void actionPerformed(java.awt.event.ActionEvent evt) {
+                btnClearFinishedActionPerformed(evt);
+            }
+        });
+
+        btnRetry.setText("Retry Selected");
+        btnRetry.setToolTipText("Run selected failed jobs again");
+        btnRetry.addActionListener(new java.awt.event.ActionListener() {
+            public void actionPerformed(java.awt.event.ActionEvent evt) {
+                btnRetryActionPerformed(evt);
+            }
+        });
+
+        javax.swing.GroupLayout layout = new javax.swing.GroupLayout(getContentPane());
+        getContentPane().setLayout(layout);
+        layout.setHorizontalGroup(
+            layout.createParallelGroup(javax.swing.GroupLayout.Alignment.LEADING)
+            .addGroup(layout.createSequentialGroup()
+                .addContainerGap()
+                .addGroup(layout.createParallelGroup(javax.swing.GroupLayout.Alignment.LEADING)
+                    .addComponent(jScrollPane1, javax.swing.GroupLayout.DEFAULT_SIZE, 760, Short.MAX_VALUE)
+                    .addGroup(layout.createSequentialGroup()
+                        .addComponent(lblPool)
+                        .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED)
+                        .addComponent(spnPool, javax.swing.GroupLayout.PREFERRED_SIZE, 60, javax.swing.GroupLayout.PREFERRED_SIZE)
+                        .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.UNRELATED)
+                        .addComponent(lblMemory)
+                        .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED)
+                        .addComponent(spnMemory, javax.swing.GroupLayout.PREFERRED_SIZE, 80, javax.swing.GroupLayout.PREFERRED_SIZE)
+                        .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.UNRELATED)
+                        .addComponent(lblDisk)
+                        .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED)
+                        .addComponent(spnDisk, javax.swing.GroupLayout.PREFERRED_SIZE, 80, javax.swing.GroupLayout.PREFERRED_SIZE)
+                        .addGap(0, 0, Short.MAX_VALUE))
+                    .addGroup(javax.swing.GroupLayout.Alignment.TRAILING, layout.createSequentialGroup()
+                        .addComponent(lblUsage, javax.swing.GroupLayout.DEFAULT_SIZE, javax.swing.GroupLayout.DEFAULT_SIZE, Short.MAX_VALUE)
+                        .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED)
+                        .addComponent(btnClearFinished)
+                        .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED)
+                        .addComponent(btnRetry)))
+                .addContainerGap())
+        );
+        layout.setVerticalGroup(
+            layout.createParallelGroup(javax.swing.GroupLayout.Alignment.LEADING)
+            .addGroup(layout.createSequentialGroup()
+                .addContainerGap()
+                .addGroup(layout.createParallelGroup(javax.swing.GroupLayout.Alignment.BASELINE)
+                    .addComponent(lblPool)
+                    .addComponent(spnPool, javax.swing.GroupLayout.PREFERRED_SIZE, javax.swing.GroupLayout.DEFAULT_SIZE, javax.swing.GroupLayout.PREFERRED_SIZE)
+                    .addComponent(lblMemory)
+                    .addComponent(spnMemory, javax.swing.GroupLayout.PREFERRED_SIZE, javax.swing.GroupLayout.DEFAULT_SIZE, javax.swing.GroupLayout.PREFERRED_SIZE)
+                    .addComponent(lblDisk)
+                    .addComponent(spnDisk, javax.swing.GroupLayout.PREFERRED_SIZE, javax.swing.GroupLayout.DEFAULT_SIZE, javax.swing.GroupLayout.PREFERRED_SIZE))
+                .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED)
+                .addComponent(jScrollPane1, javax.swing.GroupLayout.DEFAULT_SIZE, 300, Short.MAX_VALUE)
+                .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED)
+                .addGroup(layout.createParallelGroup(javax.swing.GroupLayout.Alignment.BASELINE)
+                    .addComponent(btnClearFinished)
+                    .addComponent(btnRetry)
+                    .addComponent(lblUsage))
+                .addContainerGap())
+        );
+
+        pack();
+    }// </editor-fold>//GEN-END:initComponents
+
+    private void spnPoolStateChanged(javax.swing.event.ChangeEvent evt) {//GEN-FIRST:event_spnPoolStateChanged
+        if (scheduler != null) {
+            scheduler.setMaxJobs((Integer) spnPool.getValue());
+        }
+    }//GEN-LAST:event_spnPoolStateChanged
+
+    private void spnMemoryStateChanged(javax.swing.event.ChangeEvent evt) {//GEN-FIRST:event_spnMemoryStateChanged
+        if (scheduler != null) {
+            scheduler.setMemoryBudget((Integer) spnMemory.getValue() * mb);
+        }
+    }//GEN-LAST:event_spnMemoryStateChanged
+
+    private void spnDiskStateChanged(javax.swing.event.ChangeEvent evt) {//GEN-FIRST:event_spnDiskStateChanged
+        if (scheduler != null) {
+            scheduler.setDiskBudget((Integer) spnDisk.getValue() * mb);
+        }
+    }//GEN-LAST:event_spnDiskStateChanged
+
+    private void tblJobsMouseClicked(java.awt.event.MouseEvent evt) {//GEN-FIRST:event_tblJobsMouseClicked
+        int row = tblJobs.rowAtPoint(evt.getPoint());
+
+        if (evt.getClickCount() == 2 && row != -1) {
+            showFailure(jobs.get(tblJobs.convertRowIndexToModel(row)));
+        }
+    }//GEN-LAST:event_tblJobsMouseClicked
+
+    private void btnClearFinishedActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_btnClearFinishedActionPerformed
+        clearFinished();
+    }//GEN-LAST:event_btnClearFinishedActionPerformed
+
+    private void btnRetryActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_btnRetryActionPerformed
+        retrySelected();
+    }//GEN-LAST:event_btnRetryActionPerformed
+
+    private final class JobTableModel extends AbstractTableModel {
+        private final String[] columns = {"Jar", "Dependencies", "State", "Phase", "Elapsed", "Throughput", "Result"};
+
+        @Override
+        public int getRowCount() {
+            return jobs.size();
+        }
+
+        @Override
+        public int getColumnCount() {
+            return columns.length;
+        }
+
+        @Override
+        public String getColumnName(int column) {
+            return columns[column];
+        }
+
+        @Override
+        public Object getValueAt(int rowIndex, int columnIndex) {
+            InjectJob job = jobs.get(rowIndex);
+
+            switch (columnIndex) {
+                case 0:
+                    return job.getTarget().getName();
+                case 1:
+                    return job.getDependencies().size();
+                case 2:
+                    return job.getState();
+                case 3:
+                    return job.getPhase();
+                case 4:
+                    return job.getElapsedMillis() == 0 ? "" : String.format("%.1f s", job.getElapsedMillis() / 1000.0);
+                case 5:
+                    return job.getThroughputMBps() == 0 ? "" : String.format("%.2f MB/s", job.getThroughputMBps());
+                default:
+                    return job.getResult();
+            }
+        }
+    }
+
+    // Variables declaration - do not modify//GEN-BEGIN:variables
+    private javax.swing.JButton btnClearFinished;
+    private javax.swing.JButton btnRetry;
+    private javax.swing.JScrollPane jScrollPane1;
+    private javax.swing.JLabel lblDisk;
+    private javax.swing.JLabel lblMemory;
+    private javax.swing.JLabel lblPool;
+    private javax.swing.JLabel lblUsage;
+    private javax.swing.JSpinner spnDisk;
+    private javax.swing.JSpinner spnMemory;
+    private javax.swing.JSpinner spnPool;
+    private javax.swing.JTable tblJobs;
+    // End of variables declaration//GEN-END:variables
+}
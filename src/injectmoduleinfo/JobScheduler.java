@@ -0,0 +1,289 @@
+/*******************************************************
+ * Copyright 2019 Draque Thompson
+ *
+ *  Module Injector is a module injection tool used for
+ *  modularizing jar files. This allows them to be
+ *  build into runnable images via jlink.
+ *
+ *  No guarantees about anything. Use with caution.
+ *  This thing is very much a hack, and I hope that all
+ *  dependencies will be made modular so that no one
+ *  has to ever use it again..
+ *
+ *******************************************************/
+
+package injectmoduleinfo;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Admits queued injections only while their estimated memory, disk and
+ * process use fits the budget, smallest jars first. Jobs that don't fit wait
+ * in the queue (backpressure) rather than being started and swapping.
+ *
+ * Costs are estimated from the central directories of the target and its
+ * dependencies, so nothing is decompressed to schedule a job. A started
+ * job's jdeps and javac runs are capped to its memory estimate, so the
+ * budget holds even though the tools would otherwise size their own heaps. Estimates run
+ * on their own thread, so submitting never waits on the disk.
+ *
+ * @author draque
+ */
+public final class JobScheduler {
+
+    private static final long mb = 1024L * 1024L;
+    // measured peak of a jdeps run over a small jar; jdeps and javac run one at a time per job
+    private static final long toolJvmBytes = 96 * mb;
+    // each extracted file takes at least a file system block, and costs a create and write on top of its bytes
+    private static final long entryOverheadBytes = 4096;
+
+    private final PriorityQueue<Waiting> waiting = new PriorityQueue<>();
+    // dependency jar (path, length, time) -> uncompressed class bytes, shared by jobs using the same jars
+    private final Map<String, Long> dependencyBytes = new HashMap<>();
+    private final ExecutorService workers = Executors.newCachedThreadPool(r -> {
+        Thread thread = new Thread(r, "inject-job");
+        thread.setDaemon(true);
+        return thread;
+    });
+    // one at a time, so estimates finish in submission order and share the dependency cache
+    private final ExecutorService estimator = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "inject-estimate");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private int maxJobs;
+    private long memoryBudget;
+    private long diskBudget;
+    private int running = 0;
+    private long memoryInUse = 0;
+    private long diskInUse = 0;
+    private long submitted = 0;
+    private int estimating = 0;
+
+    /**
+     * @param _maxJobs most jobs (and so external tool processes) at once
+     * @param _memoryBudget bytes of memory running jobs may use
+     * @param _diskBudget bytes of temporary disk space running jobs may use
+     */
+    public JobScheduler(int _maxJobs, long _memoryBudget, long _diskBudget) {
+        maxJobs = _maxJobs;
+        memoryBudget = _memoryBudget;
+        diskBudget = _diskBudget;
+    }
+
+    /**
+     * Queues a job; it starts once it is the smallest waiting job and fits in
+     * what is left of the budget. Returns at once: the job joins the queue
+     * when its cost has been estimated on the estimator thread.
+     *
+     * @param job
+     */
+    public void submit(final InjectJob job) {
+        final long order;
+
+        synchronized (this) {
+            order = submitted++;
+            estimating++;
+        }
+
+        job.phase("Estimating size");
+        estimator.execute(() -> {
+            Cost cost;
+
+            try {
+                cost = estimate(job.getTarget(), job.getDependencies());
+            } catch (IOException e) {
+                // unreadable jars fail fast in the job itself; schedule them as cheap
+                cost = new Cost(0, toolJvmBytes, 0);
+            }
+
+            job.phase("Waiting (" + cost + ")");
+            synchronized (this) {
+                estimating--;
+                waiting.add(new Waiting(job, cost, order));
+                dispatch();
+            }
+        });
+    }
+
+    public synchronized void setMaxJobs(int _maxJobs) {
+        maxJobs = _maxJobs;
+        dispatch();
+    }
+
+    public synchronized void setMemoryBudget(long _memoryBudget) {
+        memoryBudget = _memoryBudget;
+        dispatch();
+    }
+
+    public synchronized void setDiskBudget(long _diskBudget) {
+        diskBudget = _diskBudget;
+        dispatch();
+    }
+
+    public synchronized int getRunningCount() {
+        return running;
+    }
+
+    /**
+     * @return jobs not yet started, including those still being estimated
+     */
+    public synchronized int getWaitingCount() {
+        return waiting.size() + estimating;
+    }
+
+    /**
+     * @return estimated bytes of memory used by running jobs
+     */
+    public synchronized long getMemoryInUse() {
+        return memoryInUse;
+    }
+
+    /**
+     * @return estimated bytes of temporary disk space used by running jobs
+     */
+    public synchronized long getDiskInUse() {
+        return diskInUse;
+    }
+
+    /**
+     * Starts waiting jobs in order for as long as the head of the queue fits.
+     * A job bigger than the whole budget runs alone rather than never.
+     */
+    private synchronized void dispatch() {
+        while (!waiting.isEmpty() && running < maxJobs) {
+            Waiting next = waiting.peek();
+            boolean fits = memoryInUse + next.cost.memory <= memoryBudget && diskInUse + next.cost.disk <= diskBudget;
+
+            if (!fits && running > 0) {
+                return;
+            }
+
+            waiting.poll();
+            next.job.setToolMemory(next.cost.memory);
+            running++;
+            memoryInUse += next.cost.memory;
+            diskInUse += next.cost.disk;
+            workers.execute(() -> {
+                try {
+                    next.job.run();
+                } finally {
+                    finished(next.cost);
+                }
+            });
+        }
+    }
+
+    private synchronized void finished(Cost cost) {
+        running--;
+        memoryInUse -= cost.memory;
+        diskInUse -= cost.disk;
+        dispatch();
+    }
+
+    /**
+     * Memory is a tool JVM plus the uncompressed classes it analyzes (target
+     * and dependencies); disk is the extracted target (with a per-file
+     * overhead, as extraction cost grows with the entry count) plus its backup
+     * and the rewritten jar.
+     */
+    private Cost estimate(File target, List<File> dependencies) throws IOException {
+        long[] targetSize = centralDirectorySize(target);
+        long classes = targetSize[1];
+        long extracted = targetSize[0] + targetSize[2] * entryOverheadBytes;
+
+        for (File dependency : dependencies) {
+            classes += dependencyClassBytes(dependency);
+        }
+
+        return new Cost(extracted, toolJvmBytes + classes, extracted + 2 * target.length());
+    }
+
+    private long dependencyClassBytes(File dependency) throws IOException {
+        String key = dependency.getAbsolutePath() + ":" + dependency.length() + ":" + dependency.lastModified();
+
+        synchronized (dependencyBytes) {
+            Long ret = dependencyBytes.get(key);
+
+            if (ret == null) {
+                ret = centralDirectorySize(dependency)[1];
+                dependencyBytes.put(key, ret);
+            }
+
+            return ret;
+        }
+    }
+
+    /**
+     * @return total uncompressed bytes, uncompressed class bytes and number of
+     * entries, as recorded in the central directory
+     */
+    private static long[] centralDirectorySize(File jar) throws IOException {
+        long[] ret = {0, 0, 0};
+
+        try (ZipFile zip = new ZipFile(jar)) {
+            for (Enumeration<? extends ZipEntry> e = zip.entries(); e.hasMoreElements();) {
+                ZipEntry entry = e.nextElement();
+                long size = Math.max(0, entry.getSize());
+
+                ret[0] += size;
+                ret[2]++;
+                if (entry.getName().endsWith(".class")) {
+                    ret[1] += size;
+                }
+            }
+        }
+
+        return ret;
+    }
+
+    /**
+     * Estimated use of a job while it runs
+     */
+    private static final class Cost {
+        // extracted target size including per-entry overhead, used to run small jars first
+        private final long size;
+        private final long memory;
+        private final long disk;
+
+        private Cost(long _size, long _memory, long _disk) {
+            size = _size;
+            memory = _memory;
+            disk = _disk;
+        }
+
+        @Override
+        public String toString() {
+            return "~" + (memory / mb) + " MB memory, ~" + (disk / mb) + " MB disk";
+        }
+    }
+
+    private static final class Waiting implements Comparable<Waiting> {
+        private final InjectJob job;
+        private final Cost cost;
+        private final long order;
+
+        private Waiting(InjectJob _job, Cost _cost, long _order) {
+            job = _job;
+            cost = _cost;
+            order = _order;
+        }
+
+        @Override
+        public int compareTo(Waiting other) {
+            int ret = Long.compare(cost.size, other.cost.size);
+
+            return ret != 0 ? ret : Long.compare(order, other.order);
+        }
+    }
+}
@@ -0,0 +1,261 @@
+/*******************************************************
+ * Copyright 2019 Draque Thompson
+ *
+ *  Module Injector is a module injection tool used for
+ *  modularizing jar files. This allows them to be
+ *  build into runnable images via jlink.
+ *
+ *  No guarantees about anything. Use with caution.
+ *  This thing is very much a hack, and I hope that all
+ *  dependencies will be made modular so that no one
+ *  has to ever use it again..
+ *
+ *******************************************************/
+
+package injectmoduleinfo;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Classes jdeps could not find, grouped by package, along with the classes in
+ * the target that reference them.
+ *
+ * @author draque
+ */
+public final class MissingDependencies {
+
+    // jdeps -verbose:class line: "   com.foo.A     -> org.bar.B     not found"
+    private static final Pattern notFoundLine = Pattern.compile("^\\s*(\\S+)\\s+->\\s+(\\S+)\\s+not found");
+
+    // missing class -> referencing classes (hashed while collecting, sorted on output)
+    private final Map<String, Set<String>> referencedBy = new HashMap<>();
+    private final Set<String> packages = new HashSet<>();
+    private Map<String, List<Row>> sortedCache = null;
+
+    /**
+     * Builds model from the lines of jdeps -verbose:class output
+     *
+     * @param jdepsLines
+     * @return
+     */
+    public static MissingDependencies parse(List<String> jdepsLines) {
+        MissingDependencies ret = new MissingDependencies();
+
+        for (String line : jdepsLines) {
+            // cheap reject before running the regex; most lines are not misses
+            if (line.endsWith("not found")) {
+                Matcher m = notFoundLine.matcher(line);
+
+                if (m.find()) {
+                    ret.add(m.group(1), m.group(2));
+                }
+            }
+        }
+
+        return ret;
+    }
+
+    public void add(String fromClass, String missingClass) {
+        Set<String> refs = referencedBy.get(missingClass);
+
+        if (refs == null) {
+            refs = new HashSet<>();
+            referencedBy.put(missingClass, refs);
+            packages.add(packageOf(missingClass));
+        }
+
+        refs.add(fromClass);
+        sortedCache = null;
+    }
+
+    public boolean isEmpty() {
+        return referencedBy.isEmpty();
+    }
+
+    public int getPackageCount() {
+        return packages.size();
+    }
+
+    public int getClassCount() {
+        return referencedBy.size();
+    }
+
+    /**
+     * @return one row per missing class, ordered by package then class
+     */
+    public List<Row> getRows() {
+        List<Row> ret = new ArrayList<>(referencedBy.size());
+
+        for (List<Row> rows : byPackage().values()) {
+            ret.addAll(rows);
+        }
+
+        return ret;
+    }
+
+    /**
+     * Plain text summary (one line per missing package with its class count)
+     *
+     * @return
+     */
+    public String toText() {
+        StringBuilder ret = new StringBuilder("The following dependencies are missing. Please provide the jars containing them:\n");
+
+        for (Map.Entry<String, List<Row>> pkg : byPackage().entrySet()) {
+            ret.append(pkg.getKey()).append(" (").append(pkg.getValue().size()).append(" classes)\n");
+        }
+
+        return ret.toString();
+    }
+
+    public void writeCsv(Writer out) throws IOException {
+        out.write("package,class,references,referenced_by\n");
+
+        for (Row row : getRows()) {
+            out.write(csv(row.getPackageName()) + "," + csv(row.getClassName()) + ","
+                    + row.getReferenceCount() + "," + csv(row.getReferencedByText()) + "\n");
+        }
+    }
+
+    public void writeJson(Writer out) throws IOException {
+        out.write("{\"packages\":[");
+        boolean firstPkg = true;
+
+        for (Map.Entry<String, List<Row>> pkg : byPackage().entrySet()) {
+            out.write((firstPkg ? "" : ",") + "\n  {\"package\":" + json(pkg.getKey()) + ",\"classes\":[");
+            firstPkg = false;
+            boolean firstCls = true;
+
+            for (Row row : pkg.getValue()) {
+                out.write((firstCls ? "" : ",") + "\n    {\"class\":" + json(row.getClassName()) + ",\"referencedBy\":[");
+                firstCls = false;
+                boolean firstRef = true;
+
+                for (String ref : row.getReferencedBy()) {
+                    out.write((firstRef ? "" : ",") + json(ref));
+                    firstRef = false;
+                }
+                out.write("]}");
+            }
+            out.write("]}");
+        }
+
+        out.write("\n]}\n");
+    }
+
+    /**
+     * Rows grouped by package, everything sorted. Built once per change.
+     */
+    private Map<String, List<Row>> byPackage() {
+        if (sortedCache == null) {
+            List<String> classes = new ArrayList<>(referencedBy.keySet());
+            Collections.sort(classes);
+            sortedCache = new TreeMap<>();
+
+            for (String cls : classes) {
+                String pkg = packageOf(cls);
+                List<Row> rows = sortedCache.get(pkg);
+
+                if (rows == null) {
+                    rows = new ArrayList<>();
+                    sortedCache.put(pkg, rows);
+                }
+
+                List<String> refs = new ArrayList<>(referencedBy.get(cls));
+                Collections.sort(refs);
+                rows.add(new Row(pkg, cls, refs));
+            }
+        }
+
+        return sortedCache;
+    }
+
+    private static String packageOf(String className) {
+        int lastDot = className.lastIndexOf('.');
+
+        return lastDot == -1 ? "" : className.substring(0, lastDot);
+    }
+
+    private static String csv(String value) {
+        if (value.contains(",") || value.contains("\"") || value.contains("\n")) {
+            return "\"" + value.replace("\"", "\"\"") + "\"";
+        }
+
+        return value;
+    }
+
+    private static String json(String value) {
+        StringBuilder ret = new StringBuilder("\"");
+
+        for (char c : value.toCharArray()) {
+            switch (c) {
+                case '"':
+                    ret.append("\\\"");
+                    break;
+                case '\\':
+                    ret.append("\\\\");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        ret.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        ret.append(c);
+                    }
+            }
+        }
+
+        return ret.append('"').toString();
+    }
+
+    public static final class Row {
+        private final String packageName;
+        private final String className;
+        private final List<String> referencedBy;
+        private String referencedByText = null;
+
+        private Row(String _packageName, String _className, List<String> _referencedBy) {
+            packageName = _packageName;
+            className = _className;
+            referencedBy = Collections.unmodifiableList(_referencedBy);
+        }
+
+        public String getPackageName() {
+            return packageName;
+        }
+
+        public String getClassName() {
+            return className;
+        }
+
+        public List<String> getReferencedBy() {
+            return referencedBy;
+        }
+
+        public int getReferenceCount() {
+            return referencedBy.size();
+        }
+
+        /**
+         * Built lazily: only rendered rows and exports need it, as the form's
+         * filter does not search this column
+         */
+        public String getReferencedByText() {
+            if (referencedByText == null) {
+                referencedByText = String.join(" ", referencedBy);
+            }
+
+            return referencedByText;
+        }
+    }
+}
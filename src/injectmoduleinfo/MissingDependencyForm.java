@@ -0,0 +1,271 @@
+/*******************************************************
+ * Copyright 2019 Draque Thompson
+ *
+ *  Module Injector is a module injection tool used for
+ *  modularizing jar files. This allows them to be
+ *  build into runnable images via jlink.
+ *
+ *  No guarantees about anything. Use with caution.
+ *  This thing is very much a hack, and I hope that all
+ *  dependencies will be made modular so that no one
+ *  has to ever use it again..
+ *
+ *******************************************************/
+
+package injectmoduleinfo;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.regex.Pattern;
+import javax.swing.JFileChooser;
+import javax.swing.JOptionPane;
+import javax.swing.RowFilter;
+import javax.swing.Timer;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import javax.swing.filechooser.FileNameExtensionFilter;
+import javax.swing.table.AbstractTableModel;
+import javax.swing.table.TableRowSorter;
+
+/**
+ * Displays missing dependencies as a sortable, filterable table. JTable only
+ * renders visible rows, so this stays responsive with very large results.
+ *
+ * @author draque
+ */
+public final class MissingDependencyForm extends javax.swing.JFrame {
+
+    private static final int filterDelayMs = 250;
+    private final MissingDependencies missing;
+    private final TableRowSorter<MissingTableModel> sorter;
+    private final Timer filterTimer;
+
+    /**
+     * Creates new form MissingDependencyForm
+     * @param _missing
+     */
+    public MissingDependencyForm(MissingDependencies _missing) {
+        initComponents();
+
+        missing = _missing;
+        MissingTableModel model = new MissingTableModel(missing.getRows());
+        sorter = new TableRowSorter<>(model);
+        tblMissing.setModel(model);
+        tblMissing.setRowSorter(sorter);
+
+        lblSummary.setText(missing.getClassCount() + " missing classes in " + missing.getPackageCount()
+                + " packages. Please provide the jars containing them.");
+
+        // wait for typing to pause before refiltering large tables
+        filterTimer = new Timer(filterDelayMs, e -> applyFilter());
+        filterTimer.setRepeats(false);
+        txtFilter.getDocument().addDocumentListener(new DocumentListener() {
+            @Override
+            public void insertUpdate(DocumentEvent e) {
+                filterTimer.restart();
+            }
+
+            @Override
+            public void removeUpdate(DocumentEvent e) {
+                filterTimer.restart();
+            }
+
+            @Override
+            public void changedUpdate(DocumentEvent e) {
+                filterTimer.restart();
+            }
+        });
+
+        this.setLocationRelativeTo(null);
+    }
+
+    public static void run(MissingDependencies missing) {
+        new MissingDependencyForm(missing).setVisible(true);
+    }
+
+    private void applyFilter() {
+        String text = txtFilter.getText().trim();
+
+        if (text.isEmpty()) {
+            sorter.setRowFilter(null);
+        } else {
+            // package and class only: matching the referenced-by column would join its text for every row
+            sorter.setRowFilter(RowFilter.regexFilter("(?i)" + Pattern.quote(text), 0, 1));
+        }
+    }
+
+    private void export(String extension, boolean json) {
+        final JFileChooser fc = new JFileChooser();
+        fc.setFileFilter(new FileNameExtensionFilter(extension.toUpperCase(), extension));
+        fc.setDialogTitle("Export Missing Dependencies");
+        fc.setSelectedFile(new File("missing-dependencies." + extension));
+
+        if (fc.showSaveDialog(this) != JFileChooser.APPROVE_OPTION) {
+            return;
+        }
+
+        File file = fc.getSelectedFile();
+        try (Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8))) {
+            if (json) {
+                missing.writeJson(out);
+            } else {
+                missing.writeCsv(out);
+            }
+        } catch (IOException e) {
+            JOptionPane.showMessageDialog(this, "Unable to export: " + e.getLocalizedMessage());
+        }
+    }
+
+    /**
+     * This method is called from within the constructor to initialize the form.
+     * WARNING: Do NOT modify this code. The content of this method is always
+     * regenerated by the Form Editor.
+     */
+    @SuppressWarnings("unchecked")
+    // <editor-fold defaultstate="collapsed" desc="Generated Code">//GEN-BEGIN:initComponents
+    private void initComponents() {
+
+        lblSummary = new javax.swing.JLabel();
+        lblFilter = new javax.swing.JLabel();
+        txtFilter = new javax.swing.JTextField();
+        jScrollPane1 = new javax.swing.JScrollPane();
+        tblMissing = new javax.swing.JTable();
+        btnExportCsv = new javax.swing.JButton();
+        btnExportJson = new javax.swing.JButton();
+
+        setDefaultCloseOperation(javax.swing.WindowConstants.DISPOSE_ON_CLOSE);
+        setTitle("Missing Dependencies");
+
+        lblSummary.setText("Missing dependencies");
+
+        lblFilter.setText("Filter");
+
+        txtFilter.setToolTipText("Show only rows whose package or class contains this text");
+
+        tblMissing.setFillsViewportHeight(true);
+        jScrollPane1.setViewportView(tblMissing);
+
+        btnExportCsv.setText("Export CSV");
+        btnExportCsv.addActionListener(new java.awt.event.ActionListener() {
+            public void actionPerformed(java.awt.event.ActionEvent evt) {
+                btnExportCsvActionPerformed(evt);
+            }
+        });
+
+        btnExportJson.setText("Export JSON");
+        btnExportJson.addActionListener(new java.awt.event.ActionListener() {
+            public void actionPerformed(java.awt.event.ActionEvent evt) {
+                btnExportJsonActionPerformed(evt);
+            }
+        });
+
+        javax.swing.GroupLayout layout = new javax.swing.GroupLayout(getContentPane());
+        getContentPane().setLayout(layout);
+        layout.setHorizontalGroup(
+            layout.createParallelGroup(javax.swing.GroupLayout.Alignment.LEADING)
+            .addGroup(layout.createSequentialGroup()
+                .addContainerGap()
+                .addGroup(layout.createParallelGroup(javax.swing.GroupLayout.Alignment.LEADING)
+                    .addComponent(jScrollPane1, javax.swing.GroupLayout.DEFAULT_SIZE, 640, Short.MAX_VALUE)
+                    .addComponent(lblSummary, javax.swing.GroupLayout.DEFAULT_SIZE, javax.swing.GroupLayout.DEFAULT_SIZE, Short.MAX_VALUE)
+                    .addGroup(layout.createSequentialGroup()
+                        .addComponent(lblFilter)
+                        .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED)
+                        .addComponent(txtFilter))
+                    .addGroup(javax.swing.GroupLayout.Alignment.TRAILING, layout.createSequentialGroup()
+                        .addGap(0, 0, Short.MAX_VALUE)
+                        .addComponent(btnExportCsv)
+                        .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED)
+                        .addComponent(btnExportJson)))
+                .addContainerGap())
+        );
+        layout.setVerticalGroup(
+            layout.createParallelGroup(javax.swing.GroupLayout.Alignment.LEADING)
+            .addGroup(layout.createSequentialGroup()
+                .addContainerGap()
+                .addComponent(lblSummary)
+                .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED)
+                .addGroup(layout.createParallelGroup(javax.swing.GroupLayout.Alignment.BASELINE)
+                    .addComponent(lblFilter)
+                    .addComponent(txtFilter, javax.swing.GroupLayout.PREFERRED_SIZE, javax.swing.GroupLayout.DEFAULT_SIZE, javax.swing.GroupLayout.PREFERRED_SIZE))
+                .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED)
+                .addComponent(jScrollPane1, javax.swing.GroupLayout.DEFAULT_SIZE, 360, Short.MAX_VALUE)
+                .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED)
+                .addGroup(layout.createParallelGroup(javax.swing.GroupLayout.Alignment.BASELINE)
+                    .addComponent(btnExportCsv)
+                    .addComponent(btnExportJson))
+                .addContainerGap())
+        );
+
+        pack();
+    }// </editor-fold>//GEN-END:initComponents
+
+    private void btnExportCsvActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_btnExportCsvActionPerformed
+        export("csv", false);
+    }//GEN-LAST:event_btnExportCsvActionPerformed
+
+    private void btnExportJsonActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_btnExportJsonActionPerformed
+        export("json", true);
+    }//GEN-LAST:event_btnExportJsonActionPerformed
+
+    private static final class MissingTableModel extends AbstractTableModel {
+        private static final String[] columns = {"Package", "Missing Class", "References", "Referenced By"};
+        private final List<MissingDependencies.Row> rows;
+
+        private MissingTableModel(List<MissingDependencies.Row> _rows) {
+            rows = _rows;
+        }
+
+        @Override
+        public int getRowCount() {
+            return rows.size();
+        }
+
+        @Override
+        public int getColumnCount() {
+            return columns.length;
+        }
+
+        @Override
+        public String getColumnName(int column) {
+            return columns[column];
+        }
+
+        @Override
+        public Class<?> getColumnClass(int column) {
+            return column == 2 ? Integer.class : String.class;
+        }
+
+        @Override
+        public Object getValueAt(int rowIndex, int columnIndex) {
+            MissingDependencies.Row row = rows.get(rowIndex);
+
+            switch (columnIndex) {
+                case 0:
+                    return row.getPackageName();
+                case 1:
+                    return row.getClassName();
+                case 2:
+                    return row.getReferenceCount();
+                default:
+                    return row.getReferencedByText();
+            }
+        }
+    }
+
+    // Variables declaration - do not modify//GEN-BEGIN:variables
+    private javax.swing.JButton btnExportCsv;
+    private javax.swing.JButton btnExportJson;
+    private javax.swing.JScrollPane jScrollPane1;
+    private javax.swing.JLabel lblFilter;
+    private javax.swing.JLabel lblSummary;
+    private javax.swing.JTable tblMissing;
+    private javax.swing.JTextField txtFilter;
+    // End of variables declaration//GEN-END:variables
+}
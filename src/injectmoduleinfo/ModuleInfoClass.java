@@ -16,30 +16,33 @@ package injectmoduleinfo;
 
 import java.awt.HeadlessException;
 import java.io.BufferedReader;
-import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
-import java.io.FileReader;
-import java.io.FileWriter;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.net.URI;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.FileSystem;
 import java.nio.file.FileSystems;
 import java.nio.file.Files;
+import java.nio.file.AtomicMoveNotSupportedException;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
 import java.util.Enumeration;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
 import java.util.zip.ZipInputStream;
-import java.util.zip.ZipOutputStream;
 import javax.swing.JOptionPane;
 
 /**
@@ -50,24 +53,43 @@ public class ModuleInfoClass {
 
     private final File target;
     private final List<File> dependencies;
+    private final InjectOptions options;
+    private final InjectListener listener;
+    private File backup = null;
+    private File workDir = null;
     private String tmpModulePath = "";
+    private final ServiceScanner services = new ServiceScanner();
+    private boolean usesAdded = false;
     private final String javaStr = ".java";
     private final String classStr = ".class";
     private final String moduleInfo = "module-info";
     private final String tmpClassPath = "tmpClassPath";
+    // -verbose:class lists every class dependency; only unresolved ones are worth keeping in memory
+    private static final Pattern resolvedDependency = Pattern.compile("\\s+\\S+\\s+->\\s+\\S+\\s+(?!not found)\\S.*");
     // windows uses a different module separator character for some reason...
     private final String moduleSeparator = System.getProperties().getProperty("os.name").toLowerCase().contains("win") ? ";" : ":";
 
     /**
      * Use publicly facing inject() method
      */
-    private ModuleInfoClass(File _target, List<File> _dependencies) {
+    private ModuleInfoClass(File _target, List<File> _dependencies, InjectOptions _options, InjectListener _listener) {
         target = _target;
         dependencies = _dependencies;
+        options = _options;
+        listener = _listener;
     }
     
     private static String runAtConsole(String command) throws InterruptedException, IOException {
-        String ret = "";
+        return String.join("", runAtConsoleLines(command, null));
+    }
+    
+    /**
+     * Runs command, returning general output lines followed by error output lines
+     * 
+     * @param skip general output lines matching this are dropped as they are read (may be null)
+     */
+    private static List<String> runAtConsoleLines(String command, Pattern skip) throws InterruptedException, IOException {
+        List<String> ret = new ArrayList<>();
         Runtime run = Runtime.getRuntime();
         Process p = run.exec(command);
         System.out.println(command);
@@ -77,19 +99,30 @@ public class ModuleInfoClass {
         BufferedReader reader = new BufferedReader(new InputStreamReader(is));
         String line;
         while ((line = reader.readLine()) != null) {
-           ret += line;
+            if (skip == null || !skip.matcher(line).matches()) {
+                ret.add(line);
+            }
         }
         
         // get error output
         is = p.getErrorStream();
         reader = new BufferedReader(new InputStreamReader(is));
         while ((line = reader.readLine()) != null) {
-            ret += line;
+            ret.add(line);
         }
         
         return ret;
     }
 
+    /**
+     * @return option capping the heap of the jdeps/javac JVM, if the options set one
+     */
+    private String toolHeap() {
+        long toolMemory = options.getToolMemory();
+
+        return toolMemory > 0 ? " -J-Xmx" + Math.max(1, toolMemory / (1024 * 1024)) + "m" : "";
+    }
+
     /**
      * creates temporary module (must be run AFTER target jar extracted)
      *
@@ -97,10 +130,10 @@ public class ModuleInfoClass {
      */
     private void createTmpModule() throws IOException, InterruptedException, DependancyException {
         String command = "";
-        String targetModulePath = target.getParent();
+        String targetModulePath = workDir.getAbsolutePath();
         String targetJar = target.getAbsolutePath();
         
-        command += "jdeps -verbose:class";
+        command += "jdeps" + toolHeap() + " -verbose:class";
         
         // if dependencies exist, build proper path for them...
         if (!dependencies.isEmpty()) {
@@ -118,29 +151,17 @@ public class ModuleInfoClass {
         command += " " + targetModulePath + "";
         command += " " + targetJar + "";
         
-        String result = runAtConsole(command); // TODO: HANDLE ERROR RESULT OF A DEPENDANCY ITSELF HAVING A DEPENDANCY THAT IS UNRESOLVED
+        List<String> resultLines = runAtConsoleLines(command, resolvedDependency); // TODO: HANDLE ERROR RESULT OF A DEPENDANCY ITSELF HAVING A DEPENDANCY THAT IS UNRESOLVED
+        String result = String.join("", resultLines);
         
         if (result.contains("Missing dependen")) {
-            String commaListDeps = result.replaceAll("(^.*?->)", "");
-            commaListDeps = commaListDeps.replaceAll("^\\s*", "");
-            commaListDeps = commaListDeps.replaceAll("\\s*not found.*?->\\s*", ",");
-            commaListDeps = commaListDeps.replaceAll("\\s*not found.*$", "");
-            String error = "The following dependencies are missing. Please provide the jars containing them:\n";
-            List<String> deps = new ArrayList<>();
-            String[] arrayDeps = commaListDeps.split(",");
-            
-            for(String dep : arrayDeps) {
-                // use list to add speed for very long series of depdndencies...
-                if (!deps.contains(dep)) {
-                    deps.add(dep);
-                }
-            }
+            MissingDependencies missing = MissingDependencies.parse(resultLines);
             
-            for (String dep : deps) {
-                error += dep + "\n";
+            if (missing.isEmpty()) {
+                throw new IOException("Missing dependencies reported in unrecognized format:\n" + result);
             }
             
-            throw new DependancyException(error);
+            throw new DependancyException(missing);
         } else if (!result.contains("writing to")) {
             throw new IOException("Something's gone wrong in the module.info creation:\n" + result);
         }
@@ -149,15 +170,36 @@ public class ModuleInfoClass {
         tmpModulePath = result.substring("writing to ".length());
     }
 
+    /**
+     * Detects split packages and duplicate module names across the target and
+     * its dependencies before any external tools are run
+     */
+    private void checkPackageConflicts() throws IOException, InterruptedException, PackageConflictException {
+        List<String> conflicts = PackageConflictCheck.findConflicts(target, dependencies);
+
+        if (!conflicts.isEmpty()) {
+            String error = "The following packages or modules are provided by more than one jar. Please remove the duplicates:\n";
+
+            for (String conflict : conflicts) {
+                error += conflict + "\n";
+            }
+
+            throw new PackageConflictException(error);
+        }
+    }
+
     /**
      * creates backup of target jar
      */
     private void backupTarget() throws FileNotFoundException, IOException {
         File copyTo = new File(target.getAbsolutePath() + ".bak");
-        copyFile(target, copyTo, true);
+        backup = copyFile(target, copyTo, true);
     }
 
-    private void copyFile(File source, File copyTo, boolean backup) throws FileNotFoundException, IOException {
+    /**
+     * @return file actually copied to (backups are never overwritten)
+     */
+    private File copyFile(File source, File copyTo, boolean backup) throws FileNotFoundException, IOException {
         int count = 0;
 
         // prevent backups from being overwritten
@@ -179,14 +221,23 @@ public class ModuleInfoClass {
                 }
             }
         }
+        
+        return copyTo;
     }
 
     /**
      * removes remaining temporary files
      */
     private void cleanUp() {
-        deleteFile(new File(tmpModulePath).getParentFile());
-        deleteFile(new File(target.getParent() + File.separator + tmpClassPath));
+        deleteFile(workDir);
+    }
+    
+    /**
+     * Directory module-info.class is compiled into and the target extracted
+     * to. Unique per run so that jobs on jars in the same folder don't collide.
+     */
+    private File classDir() {
+        return new File(workDir, "classes");
     }
 
     private void deleteFile(File file) {
@@ -238,8 +289,7 @@ public class ModuleInfoClass {
                     message = "Package contains existing module (written by this utility)\nOverwrite?";
                 }
 
-                int dialogResult = JOptionPane.showConfirmDialog(null, message, "Warning", JOptionPane.YES_NO_OPTION);
-                ret = dialogResult == JOptionPane.YES_OPTION;
+                ret = listener.confirm(message);
                 
                 if (ret) {
                     removeClassFromTarget(moduleInfo + classStr);
@@ -247,7 +297,7 @@ public class ModuleInfoClass {
             }
         } else {
             ret = false;
-            JOptionPane.showMessageDialog(null, "Target jar file does not exist.");
+            listener.notice("Target jar file does not exist.");
         }
 
         return ret;
@@ -276,9 +326,9 @@ public class ModuleInfoClass {
      */
     private void compileModule() throws InterruptedException, IOException {
         String command = "";
-        String compileToPath = target.getParent() + File.separator + tmpClassPath;
+        String compileToPath = classDir().getAbsolutePath();
         
-        command += "javac";
+        command += "javac" + toolHeap();
         if (!dependencies.isEmpty()) {
             
             command += " --module-path ";
@@ -300,7 +350,13 @@ public class ModuleInfoClass {
 
             emptyExport = emptyExport.replaceAll(";.*$", "");
             removeExportFromModule(emptyExport);
-            JOptionPane.showMessageDialog(null, "Empty export: " + emptyExport + " removed from path to compile. Continuing.");
+            listener.notice("Empty export: " + emptyExport + " removed from path to compile. Continuing.");
+            compileModule();
+        } else if (!classFile.exists() && usesAdded) {
+            // a used service type may not be resolvable from this module; keep the rest
+            usesAdded = false;
+            writeModuleText(ServiceScanner.removeUses(readModuleText()));
+            listener.notice("Detected service uses could not be compiled and were removed. Continuing.");
             compileModule();
         } else if (!classFile.exists()) {
             throw new IOException("Class file not compiled: " + result);
@@ -313,22 +369,62 @@ public class ModuleInfoClass {
      * @throws IOException 
      */
     private void removeExportFromModule(String export) throws IOException{
-        File f1 = new File(tmpModulePath);
-        String line;
-        String moduleText = "";
-        try (FileReader fr = new FileReader(f1); BufferedReader br = new BufferedReader(fr)) {
-            while ((line = br.readLine()) != null) {
-                moduleText += line + "\n";
-            }
+        String regex = "\\s*exports\\s*" + export + ";";
+        writeModuleText(readModuleText().replaceAll(regex, ""));
+    }
+    
+    /**
+     * Rebuilds uses/provides clauses from what the extraction pass found.
+     * Must be run after extraction.
+     */
+    private void addServiceClauses() throws IOException {
+        String moduleText = readModuleText();
+        String patched = services.apply(moduleText, classDir());
+        
+        if (!services.getRejected().isEmpty()) {
+            listener.notice("Service providers left out of module-info (missing, abstract or no public no-argument constructor):\n"
+                    + String.join("\n", services.getRejected()));
         }
         
-        String regex = "\\s*exports\\s*" + export + ";";
-        moduleText = moduleText.replaceAll(regex, "");
-
-        try (BufferedWriter out = new BufferedWriter(new FileWriter(f1))) {
-            out.write(moduleText);
-            out.flush();
+        if (!patched.equals(moduleText)) {
+            writeModuleText(patched);
+            usesAdded = services.hasUses();
+        }
+    }
+    
+    /**
+     * Writes a stored descriptor where jdeps would have, patched for the
+     * current packages. The stored module-info.class is used as is if no
+     * patching was needed.
+     *
+     * @return true if module-info.class is ready, false if it must be compiled
+     */
+    private boolean reuseDescriptor(DescriptorCache.Previous previous, DescriptorCache.Summary summary) throws IOException {
+        String moduleText = previous.patch(summary);
+        File moduleDir = new File(workDir, summary.getKey());
+        
+        moduleDir.mkdirs();
+        tmpModulePath = new File(moduleDir, moduleInfo + javaStr).getAbsolutePath();
+        writeModuleText(moduleText);
+        
+        if (!moduleText.equals(previous.getModuleText())) {
+            listener.phase("Patching previous descriptor");
+            return false;
         }
+        
+        listener.phase("Reusing previous descriptor");
+        classDir().mkdirs();
+        Files.write(new File(classDir(), moduleInfo + classStr).toPath(), previous.getModuleClass());
+        
+        return true;
+    }
+    
+    private String readModuleText() throws IOException {
+        return new String(Files.readAllBytes(new File(tmpModulePath).toPath()), StandardCharsets.UTF_8);
+    }
+    
+    private void writeModuleText(String moduleText) throws IOException {
+        Files.write(new File(tmpModulePath).toPath(), moduleText.getBytes(StandardCharsets.UTF_8));
     }
 
     /**
@@ -356,38 +452,122 @@ public class ModuleInfoClass {
                 }
             }
         } catch (HeadlessException | IOException e) {
-            JOptionPane.showMessageDialog(null, "IO error while reading module info: " + e.getLocalizedMessage());
+            listener.notice("IO error while reading module info: " + e.getLocalizedMessage());
         }
 
         return moduleString;
     }
 
     public static void inject(File target, List<File> dependencies){
-        new ModuleInfoClass(target, dependencies).doInject();
+        inject(target, dependencies, new InjectOptions());
+    }
+
+    /**
+     * @param target jar to modularize
+     * @param dependencies jars placed on the module path
+     * @param options output settings and extra transformation stages
+     */
+    public static void inject(File target, List<File> dependencies, InjectOptions options){
+        new ModuleInfoClass(target, dependencies, options, dialogs).doInject();
+    }
+
+    /**
+     * Runs an injection without showing results in dialogs, for queued jobs.
+     * Progress, notices and confirmations go through the listener.
+     *
+     * @param target jar to modularize
+     * @param dependencies jars placed on the module path
+     * @param options output settings and extra transformation stages
+     * @param listener receives progress and answers confirmations
+     * @return false if the injection was skipped
+     * @throws IOException
+     * @throws InterruptedException
+     * @throws DependancyException
+     * @throws PackageConflictException
+     */
+    public static boolean injectJob(File target, List<File> dependencies, InjectOptions options, InjectListener listener)
+            throws IOException, InterruptedException, DependancyException, PackageConflictException {
+        ModuleInfoClass injector = new ModuleInfoClass(target, dependencies, options, listener);
+        
+        try {
+            return injector.runSteps();
+        } finally {
+            injector.cleanUp();
+        }
+    }
+
+    /**
+     * @return false if the user chose not to inject
+     */
+    private boolean runSteps() throws IOException, InterruptedException, DependancyException, PackageConflictException {
+        listener.phase("Checking archive");
+        if (!shouldInject()) {
+            return false;
+        }
+        
+        workDir = Files.createTempDirectory(target.getAbsoluteFile().getParentFile().toPath(), tmpClassPath).toFile();
+        listener.phase("Checking packages");
+        checkPackageConflicts();
+        
+        DescriptorCache cache = null;
+        DescriptorCache.Summary summary = null;
+        DescriptorCache.Previous previous = null;
+        
+        if (options.isIncremental()) {
+            listener.phase("Comparing with previous version");
+            cache = new DescriptorCache(options.getDescriptorCache());
+            summary = DescriptorCache.summarize(target, dependencies);
+            previous = cache.find(summary);
+        }
+        
+        if (previous == null) {
+            listener.phase("Generating module-info");
+            createTmpModule();
+            listener.phase("Extracting");
+            extractTmpClasspath();
+            listener.phase("Resolving services");
+            addServiceClauses();
+            listener.phase("Compiling");
+            compileModule();
+        } else if (!reuseDescriptor(previous, summary)) {
+            // exports changed, so the patched descriptor is compiled without rerunning jdeps
+            listener.phase("Extracting");
+            extractTmpClasspath();
+            listener.phase("Compiling");
+            compileModule();
+        }
+        
+        listener.phase("Backing up");
+        backupTarget();
+        listener.phase("Writing archive");
+        archiveTmpModulePath();
+        if (cache != null) {
+            cache.store(summary, readModuleText(), Files.readAllBytes(new File(classDir(), moduleInfo + classStr).toPath()));
+        }
+        
+        return true;
     }
 
     private void doInject() {
         try {
-            if (shouldInject()) {
-                createTmpModule();
-                extractTmpClasspath();
-                compileModule();
-                backupTarget();
-                archiveTmpModulePath();
+            if (runSteps()) {
                 JOptionPane.showMessageDialog(null, "Archive successfully modularized. (module-info.java added to archive for reference)\nTHERE MIGHT BE ADDITIONAL DEPENDENCIES FOR THIS MODULE. Please pay attention to error messages when you build your image with jlink.");
             }
         } catch (IOException | InterruptedException e) {
             JOptionPane.showMessageDialog(null, "Problems encountered: " + e.getLocalizedMessage());
         } catch (DependancyException e ) {
-            JOptionPane.showMessageDialog(null, "Problems encountered: Missing Dependencies (text window)");
-            TextDisplayForm.run("Missing Dependencies", e.getLocalizedMessage());
+            JOptionPane.showMessageDialog(null, "Problems encountered: Missing Dependencies (table window)");
+            MissingDependencyForm.run(e.getMissing());
+        } catch (PackageConflictException e) {
+            JOptionPane.showMessageDialog(null, "Problems encountered: Package Conflicts (text window)");
+            TextDisplayForm.run("Package Conflicts", e.getLocalizedMessage());
         } finally {
             cleanUp();
         }
     }
 
     private void extractTmpClasspath() throws IOException {
-        String destDir = target.getParent() + File.separator + tmpClassPath;
+        String destDir = classDir().getAbsolutePath();
         File dir = new File(destDir);
         // create output directory if it doesn't exist
         if (!dir.exists()) {
@@ -411,7 +591,16 @@ public class ModuleInfoClass {
                     parent.mkdirs();
                 }
 
-                if (!ze.isDirectory()) {
+                if (!ze.isDirectory() && services.wants(fileName)) {
+                    // scanned for services in the same pass rather than rereading the jar
+                    ByteArrayOutputStream content = new ByteArrayOutputStream();
+                    int len;
+                    while ((len = zis.read(buffer)) > 0) {
+                        content.write(buffer, 0, len);
+                    }
+                    Files.write(newFile.toPath(), content.toByteArray());
+                    services.scan(fileName, content.toByteArray());
+                } else if (!ze.isDirectory()) {
                     try (FileOutputStream fos = new FileOutputStream(newFile)) {
                         int len;
                         while ((len = zis.read(buffer)) > 0) {
@@ -441,46 +630,116 @@ public class ModuleInfoClass {
         return destFile;
     }
 
+    /**
+     * rewrites target from its backup with module-info.class and module-info.java added.
+     * The jar is written next to target, verified if asked, and only then
+     * moved over it, so target is never left missing, half written or broken.
+     */
     private void archiveTmpModulePath() throws IOException {
-        target.delete();
-        copyFile(new File(tmpModulePath),
-                        new File(target.getParent() + File.separator + tmpClassPath + File.separator + moduleInfo + javaStr), false);
-        zipDir(target.getAbsolutePath(), target.getParent() + File.separator + tmpClassPath);
+        Map<String, File> added = new LinkedHashMap<>();
+        added.put(moduleInfo + classStr, new File(classDir(), moduleInfo + classStr));
+        added.put(moduleInfo + javaStr, new File(tmpModulePath));
+        
+        System.out.println("Creating : " + target.getAbsolutePath());
+        File tmp = File.createTempFile(target.getName() + ".new", ".tmp", target.getAbsoluteFile().getParentFile());
+        try {
+            ArchiveWriter.Written written = ArchiveWriter.write(backup, tmp, added, buildStages(), options.isReproducible());
+            if (options.isVerify()) {
+                listener.phase("Verifying");
+                verifyArchive(tmp, written);
+            }
+            try {
+                Files.move(tmp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            tmp.delete();
+        }
     }
-
-    private static void zipDir(String zipFileName, String dir) throws FileNotFoundException, IOException {
-        File dirObj = new File(dir);
-        try (ZipOutputStream out = new ZipOutputStream(new FileOutputStream(zipFileName))) {
-            System.out.println("Creating : " + zipFileName);
-            addDir(dirObj, out, dir.length() + 1);
+    
+    /**
+     * checks the rewritten jar against the backup before it replaces target
+     */
+    private void verifyArchive(File rewritten, ArchiveWriter.Written written) throws IOException {
+        try {
+            ArchiveVerifier.verify(backup, rewritten, written);
+        } catch (IOException e) {
+            throw new IOException(e.getLocalizedMessage() + target.getName() + " was left unchanged.", e);
         }
     }
     
-    private static void addDir(File dirObj, ZipOutputStream out, int pathTrim) throws IOException {
-        File[] files = dirObj.listFiles();
-        byte[] tmpBuf = new byte[1024];
-
-        for (File file : files) {
-            if (file.isDirectory()) {
-                addDir(file, out, pathTrim);
-                continue;
-            }
-            try (final FileInputStream in = new FileInputStream(file.getAbsolutePath())) {
-                String absolutePath = file.getAbsolutePath();
-                String trimmedPath = absolutePath.substring(pathTrim);
-                System.out.print(".");
-                out.putNextEntry(new ZipEntry(trimmedPath));
-                int len;
-                while ((len = in.read(tmpBuf)) > 0) {
-                    out.write(tmpBuf, 0, len);
-                }
-                out.closeEntry();
-            }
+    /**
+     * transformation stages run while the archive is rewritten: built in ones
+     * first, then any registered as services, then any passed in options
+     */
+    private List<EntryTransformer> buildStages() throws IOException {
+        List<EntryTransformer> stages = new ArrayList<>();
+        
+        if (options.isStripSignatures()) {
+            stages.add(Transformers.stripSignatures());
+        }
+        if (!options.getDropPatterns().isEmpty()) {
+            stages.add(Transformers.dropEntries(options.getDropPatterns()));
+        }
+        if (options.isAddAutomaticModuleName()) {
+            stages.add(Transformers.automaticModuleName(generatedModuleName()));
+        }
+        stages.addAll(Transformers.discovered());
+        stages.addAll(options.getStages());
+        
+        return stages;
+    }
+    
+    /**
+     * reads module name out of the module-info.java jdeps generated
+     */
+    private String generatedModuleName() throws IOException {
+        String moduleText = readModuleText();
+        Matcher m = Pattern.compile("\\bmodule\\s+([\\w.]+)").matcher(moduleText);
+        
+        if (!m.find()) {
+            throw new IOException("Unable to read module name from " + tmpModulePath);
         }
+        
+        return m.group(1);
     }
     
+    /**
+     * Interactive injections report everything through dialogs
+     */
+    private static final InjectListener dialogs = new InjectListener() {
+        @Override
+        public void phase(String phase) {
+            System.out.println(phase);
+        }
+
+        @Override
+        public void notice(String message) {
+            JOptionPane.showMessageDialog(null, message);
+        }
+
+        @Override
+        public boolean confirm(String message) {
+            return JOptionPane.showConfirmDialog(null, message, "Warning", JOptionPane.YES_NO_OPTION) == JOptionPane.YES_OPTION;
+        }
+    };
+    
     public class DependancyException extends Exception {
-        public DependancyException(String message) {
+        private final MissingDependencies missing;
+        
+        public DependancyException(MissingDependencies _missing) {
+            super(_missing.toText());
+            missing = _missing;
+        }
+        
+        public MissingDependencies getMissing() {
+            return missing;
+        }
+    }
+
+    public class PackageConflictException extends Exception {
+        public PackageConflictException(String message) {
             super(message);
         }
     }
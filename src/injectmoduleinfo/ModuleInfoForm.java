@@ -15,7 +15,10 @@
 package injectmoduleinfo;
 
 import java.awt.Cursor;
+import java.awt.GraphicsEnvironment;
 import java.io.File;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
@@ -29,9 +32,12 @@ import javax.swing.filechooser.FileNameExtensionFilter;
  */
 public final class ModuleInfoForm extends javax.swing.JFrame {
 
+    // when set, main() loads the usual startup classes and exits (CDS training/benchmarking)
+    public static final String STARTUP_PROBE = "injectmoduleinfo.startupProbe";
     private File target = null;
     private String lastFilePath = null;
     private final List<File> dependencies = new ArrayList<>();
+    private JobQueueForm queueForm = null;
     
     /**
      * Creates new form TheForm
@@ -57,6 +63,7 @@ public final class ModuleInfoForm extends javax.swing.JFrame {
     
     private void setUIEnabled(boolean enable) {
         btnInject.setEnabled(enable);
+        btnQueue.setEnabled(enable);
         btnSelect.setEnabled(enable);
         btnAddDep.setEnabled(enable);
         btnClearDep.setEnabled(enable);
@@ -112,10 +119,16 @@ public final class ModuleInfoForm extends javax.swing.JFrame {
     private void inject() {
         if (target != null) {
             target = new File(txtTargetJar.getText()); // ensures out of date files never used
+            InjectJob conflict = queueForm == null ? null : queueForm.conflictWith(target, dependencies);
+            if (conflict != null) {
+                JOptionPane.showMessageDialog(this, "Not injecting " + target.getName() + ": it shares jars with the unfinished queued job for "
+                        + conflict.getTarget().getName() + ".\nWait for that job to finish, then inject it again.");
+                return;
+            }
             setUIEnabled(false);
             setCursor(Cursor.getPredefinedCursor(Cursor.WAIT_CURSOR));
             try {
-                ModuleInfoClass.inject(target, dependencies);
+                ModuleInfoClass.inject(target, dependencies, buildOptions());
             } catch (Exception e) {
                 JOptionPane.showMessageDialog(null, "Something went wrong:\n" + e.getLocalizedMessage());
             }
@@ -126,6 +139,53 @@ public final class ModuleInfoForm extends javax.swing.JFrame {
         }
     }
     
+    /**
+     * Hands target, its dependencies and the current options to the job queue.
+     * Dependencies are copied, so the next target can get its own set.
+     */
+    private void queue() {
+        if (target != null) {
+            target = new File(txtTargetJar.getText()); // ensures out of date files never used
+            if (queueForm == null) {
+                queueForm = new JobQueueForm();
+            }
+            queueForm.addJob(target, dependencies, buildOptions());
+            queueForm.setVisible(true);
+        } else {
+            JOptionPane.showMessageDialog(null, "Please select target Java archive.");
+        }
+    }
+    
+    /**
+     * Exits, asking first if queued jobs would be cut off mid-write
+     */
+    private void exit() {
+        if (queueForm != null && queueForm.hasUnfinishedJobs()
+                && JOptionPane.showConfirmDialog(this, "Injections are still queued or running. Exit anyway?",
+                        "Exit", JOptionPane.YES_NO_OPTION) != JOptionPane.YES_OPTION) {
+            return;
+        }
+
+        System.exit(0);
+    }
+
+    private InjectOptions buildOptions() {
+        InjectOptions options = new InjectOptions();
+        
+        options.setReproducible(chkReproducible.isSelected());
+        options.setStripSignatures(chkStripSignatures.isSelected());
+        options.setAddAutomaticModuleName(chkAutoModuleName.isSelected());
+        options.setVerify(chkVerify.isSelected());
+        options.setIncremental(chkIncremental.isSelected());
+        for (String pattern : txtDropEntries.getText().split(",")) {
+            if (!pattern.trim().isEmpty()) {
+                options.getDropPatterns().add(pattern.trim());
+            }
+        }
+        
+        return options;
+    }
+    
     /**
      * This method is called from within the constructor to initialize the form.
      * WARNING: Do NOT modify this code. The content of this method is always
@@ -145,9 +205,22 @@ public final class ModuleInfoForm extends javax.swing.JFrame {
         btnAddDep = new javax.swing.JButton();
         btnClearDep = new javax.swing.JButton();
         btnInject = new javax.swing.JButton();
+        chkReproducible = new javax.swing.JCheckBox();
+        btnQueue = new javax.swing.JButton();
+        chkStripSignatures = new javax.swing.JCheckBox();
+        chkAutoModuleName = new javax.swing.JCheckBox();
+        lblDropEntries = new javax.swing.JLabel();
+        txtDropEntries = new javax.swing.JTextField();
+        chkVerify = new javax.swing.JCheckBox();
+        chkIncremental = new javax.swing.JCheckBox();
 
-        setDefaultCloseOperation(javax.swing.WindowConstants.EXIT_ON_CLOSE);
+        setDefaultCloseOperation(javax.swing.WindowConstants.DO_NOTHING_ON_CLOSE);
         setTitle("Module Info Injector");
+        addWindowListener(new java.awt.event.WindowAdapter() {
+            public void windowClosing(java.awt.event.WindowEvent evt) {
+                formWindowClosing(evt);
+            }
+        });
 
         txtTargetJar.setEditable(false);
 
@@ -230,6 +303,34 @@ public final class ModuleInfoForm extends javax.swing.JFrame {
             }
         });
 
+        chkReproducible.setText("Reproducible output");
+        chkReproducible.setToolTipText("Sort entries and use fixed timestamps so identical inputs give byte-identical jars");
+
+        btnQueue.setText("Add to Queue");
+        btnQueue.setToolTipText("Run this jar and its dependencies as a background job");
+        btnQueue.addActionListener(new java.awt.event.ActionListener() {
+            public void actionPerformed(java.awt.event.ActionEvent evt) {
+                btnQueueActionPerformed(evt);
+            }
+        });
+
+        chkStripSignatures.setText("Strip signatures");
+        chkStripSignatures.setToolTipText("Remove signature files and manifest digests (signatures are invalid after injection)");
+
+        chkAutoModuleName.setText("Add Automatic-Module-Name");
+        chkAutoModuleName.setToolTipText("Write the generated module's name to the manifest");
+
+        lblDropEntries.setText("Drop entries");
+
+        txtDropEntries.setToolTipText("Comma separated globs of entries to leave out, e.g. **/*.html, META-INF/maven/**");
+
+        chkVerify.setSelected(true);
+        chkVerify.setText("Verify output");
+        chkVerify.setToolTipText("Check the rewritten jar's entries and CRCs against the original");
+
+        chkIncremental.setText("Reuse previous version");
+        chkIncremental.setToolTipText("Reuse the descriptor injected into an earlier version of this library when its packages and references are compatible");
+
         javax.swing.GroupLayout layout = new javax.swing.GroupLayout(getContentPane());
         getContentPane().setLayout(layout);
         layout.setHorizontalGroup(
@@ -241,10 +342,27 @@ public final class ModuleInfoForm extends javax.swing.JFrame {
                     .addGroup(layout.createSequentialGroup()
                         .addComponent(txtTargetJar, javax.swing.GroupLayout.DEFAULT_SIZE, 351, Short.MAX_VALUE)
                         .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED)
-                        .addComponent(btnSelect)))
+                        .addComponent(btnSelect))
+                    .addGroup(layout.createSequentialGroup()
+                        .addComponent(chkStripSignatures)
+                        .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED)
+                        .addComponent(chkAutoModuleName)
+                        .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED)
+                        .addComponent(chkVerify)
+                        .addGap(0, 0, Short.MAX_VALUE))
+                    .addGroup(layout.createSequentialGroup()
+                        .addComponent(lblDropEntries)
+                        .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED)
+                        .addComponent(txtDropEntries)))
                 .addContainerGap())
-            .addGroup(javax.swing.GroupLayout.Alignment.TRAILING, layout.createSequentialGroup()
-                .addGap(0, 0, Short.MAX_VALUE)
+            .addGroup(layout.createSequentialGroup()
+                .addContainerGap()
+                .addComponent(chkReproducible)
+                .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED)
+                .addComponent(chkIncremental)
+                .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED, javax.swing.GroupLayout.DEFAULT_SIZE, Short.MAX_VALUE)
+                .addComponent(btnQueue)
+                .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED)
                 .addComponent(btnInject))
         );
         layout.setVerticalGroup(
@@ -257,12 +375,29 @@ public final class ModuleInfoForm extends javax.swing.JFrame {
                 .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED)
                 .addComponent(jPanel1, javax.swing.GroupLayout.DEFAULT_SIZE, javax.swing.GroupLayout.DEFAULT_SIZE, Short.MAX_VALUE)
                 .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED)
-                .addComponent(btnInject))
+                .addGroup(layout.createParallelGroup(javax.swing.GroupLayout.Alignment.BASELINE)
+                    .addComponent(chkStripSignatures)
+                    .addComponent(chkAutoModuleName)
+                    .addComponent(chkVerify))
+                .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED)
+                .addGroup(layout.createParallelGroup(javax.swing.GroupLayout.Alignment.BASELINE)
+                    .addComponent(lblDropEntries)
+                    .addComponent(txtDropEntries, javax.swing.GroupLayout.PREFERRED_SIZE, javax.swing.GroupLayout.DEFAULT_SIZE, javax.swing.GroupLayout.PREFERRED_SIZE))
+                .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED)
+                .addGroup(layout.createParallelGroup(javax.swing.GroupLayout.Alignment.BASELINE)
+                    .addComponent(btnInject)
+                    .addComponent(chkReproducible)
+                    .addComponent(chkIncremental)
+                    .addComponent(btnQueue)))
         );
 
         pack();
     }// </editor-fold>//GEN-END:initComponents
 
+    private void formWindowClosing(java.awt.event.WindowEvent evt) {//GEN-FIRST:event_formWindowClosing
+        exit();
+    }//GEN-LAST:event_formWindowClosing
+
     private void btnSelectActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_btnSelectActionPerformed
         selectTarget();
     }//GEN-LAST:event_btnSelectActionPerformed
@@ -271,6 +406,10 @@ public final class ModuleInfoForm extends javax.swing.JFrame {
         inject();
     }//GEN-LAST:event_btnInjectActionPerformed
 
+    private void btnQueueActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_btnQueueActionPerformed
+        queue();
+    }//GEN-LAST:event_btnQueueActionPerformed
+
     private void btnClearDepActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_btnClearDepActionPerformed
         clearDependencies();
     }//GEN-LAST:event_btnClearDepActionPerformed
@@ -304,6 +443,11 @@ public final class ModuleInfoForm extends javax.swing.JFrame {
         //</editor-fold>
         //</editor-fold>
 
+        if (Boolean.getBoolean(STARTUP_PROBE)) {
+            startupProbe();
+            return;
+        }
+
         /* Create and display the form */
         java.awt.EventQueue.invokeLater(new Runnable() {
             @Override
@@ -313,16 +457,55 @@ public final class ModuleInfoForm extends javax.swing.JFrame {
         });
     }
 
+    /**
+     * Touches everything a normal start does (Swing, zipfs, regex), then
+     * exits. Used by the cds-archive and startup-benchmark targets in
+     * build.xml.
+     */
+    private static void startupProbe() {
+        try {
+            if (!GraphicsEnvironment.isHeadless()) {
+                java.awt.EventQueue.invokeAndWait(new Runnable() {
+                    @Override
+                    public void run() {
+                        new ModuleInfoForm().dispose();
+                    }
+                });
+            }
+
+            PackageConflictCheck.automaticModuleName("probe-1.0.jar");
+
+            File self = new File(ModuleInfoForm.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+            if (self.isFile()) {
+                try (FileSystem zipfs = FileSystems.newFileSystem(self.toPath(), (ClassLoader) null)) {
+                    zipfs.getRootDirectories();
+                }
+            }
+        } catch (Exception e) {
+            java.util.logging.Logger.getLogger(ModuleInfoForm.class.getName()).log(java.util.logging.Level.SEVERE, null, e);
+        }
+
+        System.exit(0);
+    }
+
     // Variables declaration - do not modify//GEN-BEGIN:variables
     private javax.swing.JButton btnAddDep;
     private javax.swing.JButton btnClearDep;
     private javax.swing.JButton btnInject;
+    private javax.swing.JButton btnQueue;
     private javax.swing.JButton btnSelect;
+    private javax.swing.JCheckBox chkAutoModuleName;
+    private javax.swing.JCheckBox chkIncremental;
+    private javax.swing.JCheckBox chkReproducible;
+    private javax.swing.JCheckBox chkStripSignatures;
+    private javax.swing.JCheckBox chkVerify;
     private javax.swing.JLabel jLabel3;
     private javax.swing.JLabel jLabel4;
+    private javax.swing.JLabel lblDropEntries;
     private javax.swing.JPanel jPanel1;
     private javax.swing.JScrollPane jScrollPane1;
     private javax.swing.JTextArea txtDependencies;
+    private javax.swing.JTextField txtDropEntries;
     private javax.swing.JTextField txtTargetJar;
     // End of variables declaration//GEN-END:variables
 }
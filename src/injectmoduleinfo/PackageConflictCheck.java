@@ -0,0 +1,259 @@
+/*******************************************************
+ * Copyright 2019 Draque Thompson
+ *
+ *  Module Injector is a module injection tool used for
+ *  modularizing jar files. This allows them to be
+ *  build into runnable images via jlink.
+ *
+ *  No guarantees about anything. Use with caution.
+ *  This thing is very much a hack, and I hope that all
+ *  dependencies will be made modular so that no one
+ *  has to ever use it again..
+ *
+ *******************************************************/
+
+package injectmoduleinfo;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.jar.Attributes;
+import java.util.jar.Manifest;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Checks the target and its dependencies for split packages and duplicate
+ * module names before jdeps or javac are run. Only the central directory (and
+ * manifest/module-info where present) of each jar is read, and jars are
+ * scanned in parallel.
+ *
+ * @author draque
+ */
+public final class PackageConflictCheck {
+
+    private static final String classStr = ".class";
+    private static final String moduleInfoClass = "module-info.class";
+    private static final String versionsPrefix = "META-INF/versions/";
+    private static final String manifestPath = "META-INF/MANIFEST.MF";
+
+    private PackageConflictCheck() {
+    }
+
+    /**
+     * Scans target and dependencies, returning human readable descriptions of
+     * every conflict found. Empty list if there are none.
+     *
+     * @param target jar to be modularized
+     * @param dependencies jars placed on the module path
+     * @return list of conflicts
+     * @throws IOException if any jar cannot be read
+     * @throws InterruptedException
+     */
+    public static List<String> findConflicts(File target, List<File> dependencies) throws IOException, InterruptedException {
+        List<File> jars = new ArrayList<>();
+        Set<String> paths = new HashSet<>();
+        jars.add(target);
+        paths.add(pathOf(target));
+
+        // the same jar listed twice (or the target listed as a dependency) is not a conflict
+        for (File jar : dependencies) {
+            if (paths.add(pathOf(jar))) {
+                jars.add(jar);
+            }
+        }
+
+        List<JarSummary> summaries = scanAll(jars);
+        List<String> ret = new ArrayList<>();
+
+        // package name -> jars containing it
+        Map<String, List<File>> packageOwners = new TreeMap<>();
+        // module name -> jars deriving it
+        Map<String, List<File>> moduleOwners = new TreeMap<>();
+
+        for (JarSummary summary : summaries) {
+            for (String pkg : summary.packages) {
+                List<File> owners = packageOwners.get(pkg);
+                if (owners == null) {
+                    owners = new ArrayList<>();
+                    packageOwners.put(pkg, owners);
+                }
+                owners.add(summary.jar);
+            }
+
+            if (!summary.moduleName.isEmpty()) {
+                List<File> owners = moduleOwners.get(summary.moduleName);
+                if (owners == null) {
+                    owners = new ArrayList<>();
+                    moduleOwners.put(summary.moduleName, owners);
+                }
+                owners.add(summary.jar);
+            }
+        }
+
+        for (Map.Entry<String, List<File>> entry : moduleOwners.entrySet()) {
+            if (entry.getValue().size() > 1) {
+                ret.add("Duplicate module " + entry.getKey() + " in: " + jarNames(entry.getValue()));
+            }
+        }
+
+        for (Map.Entry<String, List<File>> entry : packageOwners.entrySet()) {
+            if (entry.getValue().size() > 1) {
+                ret.add("Split package " + entry.getKey() + " in: " + jarNames(entry.getValue()));
+            }
+        }
+
+        return ret;
+    }
+
+    private static String pathOf(File jar) {
+        return jar.toPath().toAbsolutePath().normalize().toString();
+    }
+
+    private static List<JarSummary> scanAll(List<File> jars) throws IOException, InterruptedException {
+        int threads = Math.max(1, Math.min(jars.size(), Runtime.getRuntime().availableProcessors()));
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        List<JarSummary> ret = new ArrayList<>();
+
+        try {
+            List<Future<JarSummary>> futures = new ArrayList<>();
+
+            for (final File jar : jars) {
+                futures.add(pool.submit(() -> scan(jar)));
+            }
+
+            for (Future<JarSummary> future : futures) {
+                try {
+                    ret.add(future.get());
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    if (cause instanceof IOException) {
+                        throw (IOException) cause;
+                    }
+                    throw new IOException(cause);
+                }
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+
+        return ret;
+    }
+
+    private static JarSummary scan(File jar) throws IOException {
+        Set<String> packages = new HashSet<>();
+        String moduleName = "";
+
+        try (ZipFile zip = new ZipFile(jar)) {
+            for (Enumeration<? extends ZipEntry> e = zip.entries(); e.hasMoreElements();) {
+                String pkg = packageOf(e.nextElement().getName());
+
+                if (pkg != null) {
+                    packages.add(pkg);
+                }
+            }
+
+            ZipEntry moduleEntry = zip.getEntry(moduleInfoClass);
+            if (moduleEntry != null) {
+                try (InputStream is = zip.getInputStream(moduleEntry)) {
+                    moduleName = ClassFileReader.moduleName(is);
+                }
+            }
+
+            if (moduleName.isEmpty()) {
+                ZipEntry manifestEntry = zip.getEntry(manifestPath);
+                if (manifestEntry != null) {
+                    try (InputStream is = zip.getInputStream(manifestEntry)) {
+                        String declared = new Manifest(is).getMainAttributes().getValue(new Attributes.Name("Automatic-Module-Name"));
+                        if (declared != null) {
+                            moduleName = declared.trim();
+                        }
+                    }
+                }
+            }
+        }
+
+        if (moduleName.isEmpty()) {
+            moduleName = automaticModuleName(jar.getName());
+        }
+
+        return new JarSummary(jar, packages, moduleName);
+    }
+
+    /**
+     * Returns package of a class entry (dotted), or null if the entry is not a
+     * class that belongs to a package. Multi release entries are mapped to
+     * their base package.
+     */
+    static String packageOf(String entryName) {
+        String name = entryName;
+
+        if (name.startsWith(versionsPrefix)) {
+            int versionEnd = name.indexOf('/', versionsPrefix.length());
+            if (versionEnd == -1) {
+                return null;
+            }
+            name = name.substring(versionEnd + 1);
+        }
+
+        if (!name.endsWith(classStr) || name.startsWith("META-INF/") || name.endsWith(moduleInfoClass)) {
+            return null;
+        }
+
+        int lastSlash = name.lastIndexOf('/');
+
+        return lastSlash <= 0 ? null : name.substring(0, lastSlash).replace('/', '.');
+    }
+
+    /**
+     * Derives automatic module name from jar file name the same way the module
+     * system does
+     */
+    static String automaticModuleName(String fileName) {
+        String ret = fileName;
+
+        if (ret.endsWith(".jar")) {
+            ret = ret.substring(0, ret.length() - ".jar".length());
+        }
+
+        ret = ret.replaceFirst("-(\\d+(\\.|$)).*$", "");
+        ret = ret.replaceAll("[^A-Za-z0-9]", ".");
+        ret = ret.replaceAll("\\.{2,}", ".");
+        ret = ret.replaceAll("^\\.|\\.$", "");
+
+        return ret;
+    }
+
+    private static String jarNames(List<File> jars) {
+        String ret = "";
+
+        for (File jar : jars) {
+            ret += (ret.isEmpty() ? "" : ", ") + jar.getName();
+        }
+
+        return ret;
+    }
+
+    private static final class JarSummary {
+        private final File jar;
+        private final Set<String> packages;
+        private final String moduleName;
+
+        private JarSummary(File _jar, Set<String> _packages, String _moduleName) {
+            jar = _jar;
+            packages = _packages;
+            moduleName = _moduleName;
+        }
+    }
+}
@@ -0,0 +1,203 @@
+/*******************************************************
+ * Copyright 2019 Draque Thompson
+ *
+ *  Module Injector is a module injection tool used for
+ *  modularizing jar files. This allows them to be
+ *  build into runnable images via jlink.
+ *
+ *  No guarantees about anything. Use with caution.
+ *  This thing is very much a hack, and I hope that all
+ *  dependencies will be made modular so that no one
+ *  has to ever use it again..
+ *
+ *******************************************************/
+
+package injectmoduleinfo;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.regex.Pattern;
+
+/**
+ * Collects services a jar uses (ServiceLoader.load call sites) and provides
+ * (META-INF/services files) while it is being extracted, then turns them into
+ * uses/provides clauses. Services only registered on the classpath are
+ * otherwise lost once the jar becomes a named module.
+ *
+ * @author draque
+ */
+final class ServiceScanner {
+
+    private static final String servicesDir = "META-INF/services/";
+    private static final String classStr = ".class";
+    private static final Pattern providesClause = Pattern.compile("\\s*provides\\s+[\\w.$]+\\s+with\\s+[^;]*;");
+    private static final Pattern usesClause = Pattern.compile("\\s*uses\\s+[\\w.$]+\\s*;");
+    // service binary name -> provider binary names, in file order
+    private final Map<String, Set<String>> providers = new TreeMap<>();
+    private final Set<String> uses = new TreeSet<>();
+    private final List<String> rejected = new ArrayList<>();
+
+    /**
+     * @param entryName
+     * @return true if scan() needs the contents of this entry
+     */
+    boolean wants(String entryName) {
+        return isServiceFile(entryName)
+                || (entryName.endsWith(classStr) && !entryName.startsWith("META-INF/"));
+    }
+
+    /**
+     * @param entryName entry for which wants() returned true
+     * @param content entry contents
+     */
+    void scan(String entryName, byte[] content) throws IOException {
+        if (isServiceFile(entryName)) {
+            String service = entryName.substring(servicesDir.length());
+            Set<String> impls = providers.computeIfAbsent(service, k -> new LinkedHashSet<>());
+
+            for (String line : new String(content, StandardCharsets.UTF_8).split("\r?\n|\r")) {
+                int comment = line.indexOf('#');
+                String impl = (comment == -1 ? line : line.substring(0, comment)).trim();
+
+                if (!impl.isEmpty()) {
+                    impls.add(impl);
+                }
+            }
+        } else {
+            uses.addAll(ClassFileReader.serviceLoaderUses(content));
+        }
+    }
+
+    /**
+     * Replaces any provides clauses in module text with ones built from the
+     * scanned service files, and adds uses clauses. Invalid providers are left
+     * out, as javac would refuse them (see validProviders()).
+     *
+     * @param moduleText module-info.java as generated by jdeps
+     * @param classDir directory the jar was extracted to
+     * @return patched module text
+     */
+    String apply(String moduleText, File classDir) throws IOException {
+        StringBuilder clauses = new StringBuilder();
+
+        for (String service : uses) {
+            clauses.append("    uses ").append(sourceName(service)).append(";\n");
+        }
+        if (!uses.isEmpty()) {
+            clauses.append("\n");
+        }
+
+        for (Map.Entry<String, List<String>> entry : validProviders(directory(classDir)).entrySet()) {
+            clauses.append("    provides ").append(entry.getKey()).append(" with\n        ");
+            clauses.append(String.join(",\n        ", entry.getValue())).append(";\n\n");
+        }
+
+        String ret = providesClause.matcher(moduleText).replaceAll("");
+        int end = ret.lastIndexOf('}');
+
+        if (clauses.length() == 0 || end == -1) {
+            return ret;
+        }
+
+        return ret.substring(0, end).replaceFirst("\\s*$", "\n\n") + clauses + "}\n";
+    }
+
+    /**
+     * Providers that are missing or cannot be instantiated are left out and
+     * reported by getRejected().
+     *
+     * @param classes where to find provider class files
+     * @return service -> providers that can be declared, both as source names
+     */
+    Map<String, List<String>> validProviders(ClassSource classes) throws IOException {
+        Map<String, List<String>> ret = new TreeMap<>();
+        rejected.clear();
+
+        for (Map.Entry<String, Set<String>> entry : providers.entrySet()) {
+            List<String> valid = new ArrayList<>();
+
+            for (String impl : entry.getValue()) {
+                byte[] classBytes = classes.read(impl.replace('.', '/') + classStr);
+
+                if (classBytes != null && ClassFileReader.isServiceProvider(classBytes)) {
+                    valid.add(sourceName(impl));
+                } else {
+                    rejected.add(entry.getKey() + ": " + impl);
+                }
+            }
+
+            if (!valid.isEmpty()) {
+                ret.put(sourceName(entry.getKey()), valid);
+            }
+        }
+
+        return ret;
+    }
+
+    /**
+     * @return source names of the service types the scanned classes load
+     */
+    Set<String> getUses() {
+        Set<String> ret = new TreeSet<>();
+
+        for (String service : uses) {
+            ret.add(sourceName(service));
+        }
+
+        return ret;
+    }
+
+    /**
+     * @param moduleText
+     * @return module text without uses clauses
+     */
+    static String removeUses(String moduleText) {
+        return usesClause.matcher(moduleText).replaceAll("");
+    }
+
+    boolean hasUses() {
+        return !uses.isEmpty();
+    }
+
+    /**
+     * @return service: provider pairs dropped by the last apply() or validProviders()
+     */
+    List<String> getRejected() {
+        return rejected;
+    }
+
+    private static boolean isServiceFile(String entryName) {
+        return entryName.startsWith(servicesDir) && entryName.length() > servicesDir.length()
+                && entryName.indexOf('/', servicesDir.length()) == -1;
+    }
+
+    private static ClassSource directory(final File classDir) {
+        return entryName -> {
+            File classFile = new File(classDir, entryName);
+            return classFile.isFile() ? Files.readAllBytes(classFile.toPath()) : null;
+        };
+    }
+
+    /**
+     * nested classes are named with dots in source
+     */
+    private static String sourceName(String binaryName) {
+        return binaryName.replace('$', '.');
+    }
+
+    /**
+     * Class file contents by entry name, null if absent
+     */
+    interface ClassSource {
+        byte[] read(String entryName) throws IOException;
+    }
+}
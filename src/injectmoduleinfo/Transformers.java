@@ -0,0 +1,191 @@
+/*******************************************************
+ * Copyright 2019 Draque Thompson
+ *
+ *  Module Injector is a module injection tool used for
+ *  modularizing jar files. This allows them to be
+ *  build into runnable images via jlink.
+ *
+ *  No guarantees about anything. Use with caution.
+ *  This thing is very much a hack, and I hope that all
+ *  dependencies will be made modular so that no one
+ *  has to ever use it again..
+ *
+ *******************************************************/
+
+package injectmoduleinfo;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.ServiceLoader;
+import java.util.Set;
+import java.util.jar.Attributes;
+import java.util.jar.Manifest;
+import java.util.regex.Pattern;
+
+/**
+ * Built in entry transformation stages
+ *
+ * @author draque
+ */
+public final class Transformers {
+
+    private static final String manifestPath = "META-INF/MANIFEST.MF";
+    private static final Pattern signatureFile = Pattern.compile("META-INF/[^/]*\\.(SF|RSA|DSA|EC)|META-INF/SIG-[^/]*", Pattern.CASE_INSENSITIVE);
+
+    private Transformers() {
+    }
+
+    /**
+     * Removes jar signature files and the per entry digests in the manifest.
+     * Signatures cannot survive the rewrite, and stale ones make the jar fail
+     * verification.
+     *
+     * @return
+     */
+    public static EntryTransformer stripSignatures() {
+        return new EntryTransformer() {
+            @Override
+            public boolean keep(String name) {
+                return !signatureFile.matcher(name).matches();
+            }
+
+            @Override
+            public boolean rewrites(String name) {
+                return name.equals(manifestPath);
+            }
+
+            @Override
+            public byte[] rewrite(String name, byte[] content) throws IOException {
+                Manifest manifest = new Manifest(new ByteArrayInputStream(content));
+                Iterator<Attributes> sections = manifest.getEntries().values().iterator();
+
+                while (sections.hasNext()) {
+                    Attributes section = sections.next();
+                    section.keySet().removeIf(key -> key.toString().toUpperCase().endsWith("-DIGEST"));
+
+                    if (section.isEmpty()) {
+                        sections.remove();
+                    }
+                }
+
+                return toBytes(manifest);
+            }
+        };
+    }
+
+    /**
+     * Sets Automatic-Module-Name in the manifest (creating one if needed), so
+     * tools reading the jar as an automatic module agree with module-info
+     *
+     * @param moduleName
+     * @return
+     */
+    public static EntryTransformer automaticModuleName(final String moduleName) {
+        return new EntryTransformer() {
+            @Override
+            public boolean rewrites(String name) {
+                return name.equals(manifestPath);
+            }
+
+            @Override
+            public byte[] rewrite(String name, byte[] content) throws IOException {
+                Manifest manifest = new Manifest(new ByteArrayInputStream(content));
+                // main attributes are not written out without a version
+                manifest.getMainAttributes().putIfAbsent(Attributes.Name.MANIFEST_VERSION, "1.0");
+                manifest.getMainAttributes().putValue("Automatic-Module-Name", moduleName);
+
+                return toBytes(manifest);
+            }
+
+            @Override
+            public Map<String, byte[]> addEntries(Set<String> names) throws IOException {
+                if (names.contains(manifestPath)) {
+                    return Collections.emptyMap();
+                }
+
+                Manifest manifest = new Manifest();
+                manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+                manifest.getMainAttributes().putValue("Automatic-Module-Name", moduleName);
+
+                return Collections.singletonMap(manifestPath, toBytes(manifest));
+            }
+        };
+    }
+
+    /**
+     * Leaves out entries matching any of the given globs. * matches within a
+     * directory, ** across directories, ? a single character.
+     *
+     * @param globs
+     * @return
+     */
+    public static EntryTransformer dropEntries(List<String> globs) {
+        final List<Pattern> patterns = new ArrayList<>();
+
+        for (String glob : globs) {
+            if (!glob.trim().isEmpty()) {
+                patterns.add(globToPattern(glob.trim()));
+            }
+        }
+
+        return new EntryTransformer() {
+            @Override
+            public boolean keep(String name) {
+                for (Pattern pattern : patterns) {
+                    if (pattern.matcher(name).matches()) {
+                        return false;
+                    }
+                }
+
+                return true;
+            }
+        };
+    }
+
+    /**
+     * @return stages registered through META-INF/services
+     */
+    public static List<EntryTransformer> discovered() {
+        List<EntryTransformer> ret = new ArrayList<>();
+
+        for (EntryTransformer stage : ServiceLoader.load(EntryTransformer.class)) {
+            ret.add(stage);
+        }
+
+        return ret;
+    }
+
+    static Pattern globToPattern(String glob) {
+        StringBuilder regex = new StringBuilder();
+
+        for (int i = 0; i < glob.length(); i++) {
+            char c = glob.charAt(i);
+
+            if (c == '*' && i + 1 < glob.length() && glob.charAt(i + 1) == '*') {
+                regex.append(".*");
+                i++;
+            } else if (c == '*') {
+                regex.append("[^/]*");
+            } else if (c == '?') {
+                regex.append("[^/]");
+            } else {
+                regex.append(Pattern.quote(String.valueOf(c)));
+            }
+        }
+
+        return Pattern.compile(regex.toString());
+    }
+
+    private static byte[] toBytes(Manifest manifest) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        manifest.write(out);
+
+        return out.toByteArray();
+    }
+}